@@ -0,0 +1,198 @@
+import java.util.*;
+import java.util.stream.*;
+import java.lang.Integer;
+import java.lang.Math;
+
+/**
+ * Generates association rules X => Y from frequent itemsets, so that
+ * drug pairs (and larger sets) can be ranked by how strongly they go
+ * together rather than just listed. Every measure is computed from the
+ * supports that came with the itemsets, so no database scan is needed:
+ * since every subset of a frequent itemset is frequent, the support of
+ * every antecedent and consequent is already known.
+ *
+ * For a rule X => Y over N trials:
+ * - confidence = support(X u Y) / support(X)
+ * - lift = confidence / (support(Y) / N)
+ * - leverage = support(X u Y) / N - (support(X) / N) * (support(Y) / N)
+ */
+public class AssociationRules {
+    /* The supports of all itemsets, keyed by their drugs (in ascending order) joined with "!": */
+    private HashMap<String, Integer> supports;
+    private List<VerticalIndex.Itemset> itemsets;
+    private int numTrials;
+    public double minConfidence = 0.5;
+    public double minLift = 1.0;
+
+    /**
+     * The itemsets must include every subset of every itemset (as
+     * VerticalIndex.mineFrequentItemsets() does), each with its drugs
+     * in ascending order.
+     */
+    public AssociationRules(List<VerticalIndex.Itemset> itemsets, int numTrials) {
+        this.itemsets = itemsets;
+        this.numTrials = numTrials;
+        this.supports = new HashMap<String, Integer>(itemsets.size() * 2);
+        for (VerticalIndex.Itemset itemset : itemsets) {
+            this.supports.put(key(itemset.drugs, (1 << itemset.drugs.length) - 1), itemset.support);
+        }
+    }
+
+    /**
+     * Return the k rules with the highest lift that pass the confidence
+     * and lift thresholds, highest lift first. The itemsets are split
+     * into one slice per task, each task keeps its own bounded heap of
+     * its best k rules, and the heaps are merged at the end.
+     */
+    public ArrayList<Rule> getTopRules(int k) {
+        int numTasks = Math.max(1, Math.min(this.itemsets.size(), 4 * Runtime.getRuntime().availableProcessors()));
+        PriorityQueue<Rule> best = IntStream.range(0, numTasks).parallel().mapToObj(task -> {
+            PriorityQueue<Rule> heap = new PriorityQueue<Rule>(k + 1);
+            int start = (int)((long)this.itemsets.size() * task / numTasks);
+            int end = (int)((long)this.itemsets.size() * (task + 1) / numTasks);
+            for (int i = start; i < end; i++) {
+                this.addRules(this.itemsets.get(i), heap, k);
+            }
+            return heap;
+        }).reduce(new PriorityQueue<Rule>(), (heap1, heap2) -> {
+            PriorityQueue<Rule> merged = new PriorityQueue<Rule>(k + 1);
+            for (Rule rule : heap1) {
+                offer(merged, rule, k);
+            }
+            for (Rule rule : heap2) {
+                offer(merged, rule, k);
+            }
+            return merged;
+        });
+        ArrayList<Rule> rules = new ArrayList<Rule>(best);
+        Collections.sort(rules, Collections.reverseOrder());
+        return rules;
+    }
+
+    /**
+     * Generate every rule from one itemset: each non-empty proper
+     * subset of its drugs, given as a bit mask, is an antecedent, and
+     * the remaining drugs are the consequent.
+     */
+    private void addRules(VerticalIndex.Itemset itemset, PriorityQueue<Rule> heap, int k) {
+        int length = itemset.drugs.length;
+        if (length < 2) {
+            return;
+        }
+        int all = (1 << length) - 1;
+        double n = this.numTrials;
+        for (int mask = 1; mask < all; mask++) {
+            Integer antecedentSupport = this.supports.get(key(itemset.drugs, mask));
+            Integer consequentSupport = this.supports.get(key(itemset.drugs, all & ~mask));
+            if (antecedentSupport == null || consequentSupport == null) {
+                throw new IllegalArgumentException("The itemsets are missing a subset of " + itemset + ".");
+            }
+            double confidence = itemset.support / (double)antecedentSupport;
+            double lift = confidence / (consequentSupport / n);
+            if (confidence < this.minConfidence || lift < this.minLift) {
+                continue;
+            }
+            double leverage = itemset.support / n - (antecedentSupport / n) * (consequentSupport / n);
+            offer(heap, new Rule(subset(itemset.drugs, mask), subset(itemset.drugs, all & ~mask), itemset.support, confidence, lift, leverage), k);
+        }
+    }
+
+    /**
+     * Add a rule to a min-heap of at most k rules, evicting the rule
+     * with the lowest lift if the heap is full.
+     */
+    private static void offer(PriorityQueue<Rule> heap, Rule rule, int k) {
+        if (heap.size() < k) {
+            heap.add(rule);
+        }
+        else if (k > 0 && rule.compareTo(heap.peek()) > 0) {
+            heap.poll();
+            heap.add(rule);
+        }
+    }
+
+    private static String key(String[] drugs, int mask) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < drugs.length; i++) {
+            if ((mask & (1 << i)) != 0) {
+                if (builder.length() > 0) {
+                    builder.append("!");
+                }
+                builder.append(drugs[i]);
+            }
+        }
+        return builder.toString();
+    }
+
+    private static String[] subset(String[] drugs, int mask) {
+        String[] result = new String[Integer.bitCount(mask)];
+        int j = 0;
+        for (int i = 0; i < drugs.length; i++) {
+            if ((mask & (1 << i)) != 0) {
+                result[j++] = drugs[i];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * A rule antecedent => consequent and its measures. Rules are
+     * ordered by lift, then by support.
+     */
+    public static class Rule implements Comparable<Rule> {
+        public String[] antecedent;
+        public String[] consequent;
+        public int support;
+        public double confidence;
+        public double lift;
+        public double leverage;
+
+        public Rule(String[] antecedent, String[] consequent, int support, double confidence, double lift, double leverage) {
+            this.antecedent = antecedent;
+            this.consequent = consequent;
+            this.support = support;
+            this.confidence = confidence;
+            this.lift = lift;
+            this.leverage = leverage;
+        }
+
+        @Override
+        public int compareTo(Rule rule) {
+            int comparison = Double.compare(this.lift, rule.lift);
+            if (comparison == 0) {
+                return Integer.compare(this.support, rule.support);
+            }
+            return comparison;
+        }
+
+        @Override
+        public String toString() {
+            return String.join(", ", this.antecedent) + " => " + String.join(", ", this.consequent) + " (support " + this.support + ", confidence " + String.format("%.3f", this.confidence) + ", lift " + String.format("%.3f", this.lift) + ", leverage " + String.format("%.5f", this.leverage) + ")";
+        }
+    }
+
+    /**
+     * Usage: AssociationRules [FP database directory] [min support] [max itemset length] [k]
+     */
+    public static void main(String[] args) {
+        try {
+            String directory = (args.length > 0 ? args[0] : "/home/andy/programs/java/EECS 435 project/");
+            int minSupport = (args.length > 1 ? Integer.parseInt(args[1]) : 50);
+            int maxLength = (args.length > 2 ? Integer.parseInt(args[2]) : 3);
+            int k = (args.length > 3 ? Integer.parseInt(args[3]) : 100);
+            long startTime = System.currentTimeMillis();
+            VerticalIndex index = VerticalIndex.open(directory);
+            ArrayList<VerticalIndex.Itemset> itemsets = index.mineFrequentItemsets(minSupport, maxLength);
+            AssociationRules rules = new AssociationRules(itemsets, index.getNumberOfTrials());
+            ArrayList<Rule> topRules = rules.getTopRules(k);
+            System.out.println("Found " + itemsets.size() + " frequent itemsets and the top " + topRules.size() + " rules in " + (System.currentTimeMillis() - startTime) + " milliseconds.");
+            for (Rule rule : topRules) {
+                System.out.println(rule);
+            }
+        }
+        catch (Exception e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+        }
+    }
+}
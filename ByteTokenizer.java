@@ -0,0 +1,337 @@
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.io.*;
+import java.lang.Integer;
+import java.lang.Math;
+
+/**
+ * Splits the lines of the text "databases" (indirectDB.txt and
+ * FPDB.txt) into fields without allocating anything per line. Bytes
+ * are read into one buffer that is reused for the whole file (and for
+ * later files, via reset()), lines are found by scanning for '\n', and
+ * fields are returned as offsets into the buffer rather than as
+ * Strings. A field can be compared to a known byte string, parsed as a
+ * number, or looked up in a Dictionary straight from the buffer; a
+ * String is only created when a caller asks for one.
+ *
+ * Lines are assumed to be UTF-8, and a trailing '\r' is ignored.
+ */
+public class ByteTokenizer {
+    private InputStream in;
+    private byte[] buffer;
+    /* The buffer holds unread bytes from position to limit: */
+    private int position;
+    private int limit;
+    private boolean endOfStream;
+    /* The current line, without its line terminator: */
+    private int lineStart;
+    private int lineEnd;
+    /* The fields of the current line, after a call to split(): */
+    private int[] fieldStarts;
+    private int[] fieldEnds;
+    private int numFields;
+
+    public ByteTokenizer(InputStream in) {
+        this(in, new byte[1 << 16]);
+    }
+
+    /**
+     * Create a tokenizer that reads into the given buffer. The buffer
+     * grows if a line does not fit in it.
+     */
+    public ByteTokenizer(InputStream in, byte[] buffer) {
+        this.buffer = buffer;
+        this.fieldStarts = new int[16];
+        this.fieldEnds = new int[16];
+        this.reset(in);
+    }
+
+    /**
+     * Start reading another stream, keeping this tokenizer's buffers.
+     */
+    public void reset(InputStream in) {
+        this.in = in;
+        this.position = 0;
+        this.limit = 0;
+        this.endOfStream = false;
+        this.numFields = 0;
+    }
+
+    public void close() throws IOException {
+        this.in.close();
+    }
+
+    /**
+     * Advance to the next line. Returns false at the end of the stream.
+     */
+    public boolean nextLine() throws IOException {
+        this.numFields = 0;
+        int scan = this.position;
+        while (true) {
+            for (; scan < this.limit; scan++) {
+                if (this.buffer[scan] == '\n') {
+                    this.setLine(this.position, scan);
+                    this.position = scan + 1;
+                    return true;
+                }
+            }
+            if (this.endOfStream) {
+                if (this.position < this.limit) {
+                    this.setLine(this.position, this.limit);
+                    this.position = this.limit;
+                    return true;
+                }
+                return false;
+            }
+            scan -= this.position;
+            this.fill();
+        }
+    }
+
+    private void setLine(int start, int end) {
+        if (end > start && this.buffer[end - 1] == '\r') {
+            end--;
+        }
+        this.lineStart = start;
+        this.lineEnd = end;
+    }
+
+    /**
+     * Move the unread bytes to the start of the buffer (growing it if
+     * they fill it) and read more bytes after them.
+     */
+    private void fill() throws IOException {
+        int unread = this.limit - this.position;
+        if (unread == this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer, this.buffer.length * 2);
+        }
+        else if (this.position > 0) {
+            System.arraycopy(this.buffer, this.position, this.buffer, 0, unread);
+        }
+        this.position = 0;
+        this.limit = unread;
+        int n = this.in.read(this.buffer, this.limit, this.buffer.length - this.limit);
+        if (n < 0) {
+            this.endOfStream = true;
+        }
+        else {
+            this.limit += n;
+        }
+    }
+
+    /**
+     * Split the current line into fields at every occurrence of either
+     * delimiter (pass the same byte twice for a single delimiter). As
+     * with String.split(), trailing empty fields are dropped. Returns
+     * the number of fields.
+     */
+    public int split(byte delimiter1, byte delimiter2) {
+        this.numFields = 0;
+        int start = this.lineStart;
+        for (int i = this.lineStart; i <= this.lineEnd; i++) {
+            if (i == this.lineEnd || this.buffer[i] == delimiter1 || this.buffer[i] == delimiter2) {
+                if (this.numFields == this.fieldStarts.length) {
+                    this.fieldStarts = Arrays.copyOf(this.fieldStarts, this.numFields * 2);
+                    this.fieldEnds = Arrays.copyOf(this.fieldEnds, this.numFields * 2);
+                }
+                this.fieldStarts[this.numFields] = start;
+                this.fieldEnds[this.numFields] = i;
+                this.numFields++;
+                start = i + 1;
+            }
+        }
+        while (this.numFields > 0 && this.fieldEnds[this.numFields - 1] == this.fieldStarts[this.numFields - 1]) {
+            this.numFields--;
+        }
+        return this.numFields;
+    }
+
+    public int getNumberOfFields() {
+        return this.numFields;
+    }
+
+    /**
+     * The buffer holding the current line. Only valid until the next
+     * call to nextLine().
+     */
+    public byte[] getBuffer() {
+        return this.buffer;
+    }
+
+    public int getLineStart() {
+        return this.lineStart;
+    }
+
+    public int getFieldStart(int field) {
+        return this.fieldStarts[field];
+    }
+
+    public int getFieldEnd(int field) {
+        return this.fieldEnds[field];
+    }
+
+    public int getFieldLength(int field) {
+        return this.fieldEnds[field] - this.fieldStarts[field];
+    }
+
+    public boolean fieldEquals(int field, byte[] bytes) {
+        int start = this.fieldStarts[field];
+        if (this.fieldEnds[field] - start != bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (this.buffer[start + i] != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parse a field as a decimal int, like Integer.parseInt().
+     */
+    public int parseInt(int field) {
+        int start = this.fieldStarts[field];
+        int end = this.fieldEnds[field];
+        boolean negative = false;
+        if (start < end && (this.buffer[start] == '-' || this.buffer[start] == '+')) {
+            negative = (this.buffer[start] == '-');
+            start++;
+        }
+        if (start == end || end - start > 9) {
+            throw new NumberFormatException("For input string: \"" + this.getFieldString(field) + "\"");
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = this.buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("For input string: \"" + this.getFieldString(field) + "\"");
+            }
+            value = value * 10 + digit;
+        }
+        return (negative ? -value : value);
+    }
+
+    /**
+     * Decode a field into a new String.
+     */
+    public String getFieldString(int field) {
+        return new String(this.buffer, this.fieldStarts[field], this.fieldEnds[field] - this.fieldStarts[field], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decode the current line into a new String (for error messages).
+     */
+    public String getLineString() {
+        return new String(this.buffer, this.lineStart, this.lineEnd - this.lineStart, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * An open-addressing hash table from byte strings to values, which
+     * can be queried with a slice of any byte array, such as a field
+     * in a tokenizer's buffer. Looking up a key allocates nothing; the
+     * key's bytes are only copied when a new entry is put.
+     */
+    public static class Dictionary<V> {
+        private byte[][] keys;
+        private int[] hashes;
+        private Object[] values;
+        private int size;
+
+        public Dictionary(int expectedSize) {
+            int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+            this.keys = new byte[capacity][];
+            this.hashes = new int[capacity];
+            this.values = new Object[capacity];
+        }
+
+        @SuppressWarnings("unchecked")
+        public V get(byte[] bytes, int offset, int length) {
+            int slot = this.find(bytes, offset, length, hash(bytes, offset, length));
+            return (V)this.values[slot];
+        }
+
+        /**
+         * Look up a field of a tokenizer's current line.
+         */
+        public V get(ByteTokenizer tokenizer, int field) {
+            return this.get(tokenizer.buffer, tokenizer.fieldStarts[field], tokenizer.getFieldLength(field));
+        }
+
+        public void put(byte[] bytes, int offset, int length, V value) {
+            int hash = hash(bytes, offset, length);
+            int slot = this.find(bytes, offset, length, hash);
+            if (this.keys[slot] == null) {
+                if (2 * (this.size + 1) > this.keys.length) {
+                    this.grow();
+                    slot = this.find(bytes, offset, length, hash);
+                }
+                this.keys[slot] = Arrays.copyOfRange(bytes, offset, offset + length);
+                this.hashes[slot] = hash;
+                this.size++;
+            }
+            this.values[slot] = value;
+        }
+
+        public void put(ByteTokenizer tokenizer, int field, V value) {
+            this.put(tokenizer.buffer, tokenizer.fieldStarts[field], tokenizer.getFieldLength(field), value);
+        }
+
+        public int size() {
+            return this.size;
+        }
+
+        private int find(byte[] bytes, int offset, int length, int hash) {
+            int mask = this.keys.length - 1;
+            int slot = hash & mask;
+            while (this.keys[slot] != null) {
+                if (this.hashes[slot] == hash && equals(this.keys[slot], bytes, offset, length)) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void grow() {
+            byte[][] oldKeys = this.keys;
+            int[] oldHashes = this.hashes;
+            Object[] oldValues = this.values;
+            this.keys = new byte[oldKeys.length * 2][];
+            this.hashes = new int[oldKeys.length * 2];
+            this.values = new Object[oldKeys.length * 2];
+            int mask = this.keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    int slot = oldHashes[i] & mask;
+                    while (this.keys[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    this.keys[slot] = oldKeys[i];
+                    this.hashes[slot] = oldHashes[i];
+                    this.values[slot] = oldValues[i];
+                }
+            }
+        }
+
+        private static boolean equals(byte[] key, byte[] bytes, int offset, int length) {
+            if (key.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (key[i] != bytes[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int hash(byte[] bytes, int offset, int length) {
+            int hash = 0x811c9dc5;
+            for (int i = offset; i < offset + length; i++) {
+                hash = (hash ^ bytes[i]) * 0x01000193;
+            }
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
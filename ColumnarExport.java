@@ -0,0 +1,519 @@
+import java.nio.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+import java.io.*;
+import java.lang.Integer;
+import java.lang.Math;
+
+/**
+ * Exports the drug graph and frequent patterns in a compressed,
+ * column-oriented file format, so that other tools can load them
+ * without parsing graph.txt.
+ *
+ * A file holds any number of named columns of ints, doubles or
+ * strings. Each column is cut into chunks of up to chunkRows values,
+ * and every chunk is deflated on its own, in parallel, then written to
+ * the file as soon as it and all earlier chunks are done. A footer at
+ * the end of the file lists each column's chunks with their offsets,
+ * so a reader can load one column without reading or inflating any
+ * other. Layout:
+ *
+ * magic, chunk, chunk, ..., footer, footer offset (long), magic
+ *
+ * The graph export has a "nodes" string column (the dictionary of node
+ * names), "node1" and "node2" int columns holding indexes into it, a
+ * "weight" double column and an "occurrences" int column (for a
+ * pruned graph, the number of effect nodes each pair of drugs shares),
+ * all with one value per edge. The pattern export has the same "nodes" dictionary,
+ * a "support" int column and a "length" int column with one value per
+ * itemset, and an "items" int column with the itemsets' node indexes
+ * one after another.
+ */
+public class ColumnarExport {
+    private static int magicNumber = 0x434f4c53;
+    private static byte intType = 1;
+    private static byte doubleType = 2;
+    private static byte stringType = 3;
+
+    /**
+     * Export the edges of a graph's published snapshot.
+     */
+    public static void exportGraph(TrialGraph g, File file, int chunkRows) throws IOException {
+        Map<TrialGraph.TrialEdge, TrialGraph.TrialEdge> edges = g.getSnapshot().getEdges();
+        Writer writer = new Writer(file, chunkRows);
+        try {
+            HashMap<String, Integer> dictionary = new HashMap<String, Integer>();
+            StringColumn nodes = writer.addStringColumn("nodes");
+            IntColumn node1 = writer.addIntColumn("node1");
+            IntColumn node2 = writer.addIntColumn("node2");
+            DoubleColumn weight = writer.addDoubleColumn("weight");
+            IntColumn occurrences = writer.addIntColumn("occurrences");
+            for (TrialGraph.TrialEdge e : edges.values()) {
+                node1.add(encode(dictionary, nodes, e.node1.getContents()));
+                node2.add(encode(dictionary, nodes, e.node2.getContents()));
+                weight.add(e.weight);
+                occurrences.add(e.occurrences);
+            }
+        }
+        finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Export frequent itemsets, such as those mined by
+     * VerticalIndex.mineFrequentItemsets().
+     */
+    public static void exportPatterns(List<VerticalIndex.Itemset> itemsets, File file, int chunkRows) throws IOException {
+        Writer writer = new Writer(file, chunkRows);
+        try {
+            HashMap<String, Integer> dictionary = new HashMap<String, Integer>();
+            StringColumn nodes = writer.addStringColumn("nodes");
+            IntColumn support = writer.addIntColumn("support");
+            IntColumn length = writer.addIntColumn("length");
+            IntColumn items = writer.addIntColumn("items");
+            for (VerticalIndex.Itemset itemset : itemsets) {
+                support.add(itemset.support);
+                length.add(itemset.drugs.length);
+                for (String drug : itemset.drugs) {
+                    items.add(encode(dictionary, nodes, drug));
+                }
+            }
+        }
+        finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Return the dictionary index of a name, appending it to the
+     * dictionary column the first time it is seen.
+     */
+    private static int encode(HashMap<String, Integer> dictionary, StringColumn column, String name) throws IOException {
+        Integer index = dictionary.get(name);
+        if (index == null) {
+            index = dictionary.size();
+            dictionary.put(name, index);
+            column.add(name);
+        }
+        return index;
+    }
+
+    /**
+     * Writes a columnar file. Columns are filled independently; each
+     * buffers one chunk of values, and hands the chunk over to be
+     * compressed on a thread pool when it is full. Compressed chunks
+     * are written in the order they were handed over. At most a few
+     * chunks per thread are in flight at once, so memory use does not
+     * depend on the number of rows.
+     */
+    public static class Writer {
+        private DataOutputStream out;
+        private long position;
+        private int chunkRows;
+        private ExecutorService executor;
+        private int maxPendingChunks;
+        private ArrayDeque<Future<Chunk>> pendingChunks;
+        private ArrayList<Column> columns;
+
+        public Writer(File file, int chunkRows) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+            this.chunkRows = chunkRows;
+            int threads = Runtime.getRuntime().availableProcessors();
+            this.executor = Executors.newFixedThreadPool(threads);
+            this.maxPendingChunks = 4 * threads;
+            this.pendingChunks = new ArrayDeque<Future<Chunk>>();
+            this.columns = new ArrayList<Column>();
+            this.out.writeInt(magicNumber);
+            this.position = 4;
+        }
+
+        public IntColumn addIntColumn(String name) {
+            IntColumn column = new IntColumn(this, name);
+            this.columns.add(column);
+            return column;
+        }
+
+        public DoubleColumn addDoubleColumn(String name) {
+            DoubleColumn column = new DoubleColumn(this, name);
+            this.columns.add(column);
+            return column;
+        }
+
+        public StringColumn addStringColumn(String name) {
+            StringColumn column = new StringColumn(this, name);
+            this.columns.add(column);
+            return column;
+        }
+
+        /**
+         * Queue a chunk of raw column bytes for compression, then write
+         * out every chunk at the head of the queue that is finished,
+         * waiting for the head if too many chunks are in flight.
+         */
+        private void submit(final Column column, final byte[] raw, final int length, final int rows) throws IOException {
+            this.pendingChunks.add(this.executor.submit(new Callable<Chunk>() {
+                public Chunk call() {
+                    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+                    deflater.setInput(raw, 0, length);
+                    deflater.finish();
+                    ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2 + 64);
+                    byte[] buffer = new byte[1 << 16];
+                    while (!(deflater.finished())) {
+                        int n = deflater.deflate(buffer);
+                        compressed.write(buffer, 0, n);
+                    }
+                    deflater.end();
+                    return new Chunk(column, compressed.toByteArray(), rows, length);
+                }
+            }));
+            this.drain(false);
+        }
+
+        /**
+         * Write out finished chunks from the head of the queue. Waits
+         * for unfinished ones while too many chunks are in flight, or
+         * until the queue is empty if all is true.
+         */
+        private void drain(boolean all) throws IOException {
+            while (!(this.pendingChunks.isEmpty()) && (all || this.pendingChunks.size() > this.maxPendingChunks || this.pendingChunks.peek().isDone())) {
+                Chunk chunk;
+                try {
+                    chunk = this.pendingChunks.poll().get();
+                }
+                catch (Exception e) {
+                    throw new IOException("Compressing a column chunk failed.", e);
+                }
+                chunk.offset = this.position;
+                this.out.write(chunk.data);
+                this.position += chunk.data.length;
+                chunk.column.chunks.add(chunk);
+                chunk.data = null;
+            }
+        }
+
+        /**
+         * Flush every column's last chunk, write all remaining chunks
+         * and the footer, and close the file.
+         */
+        public void close() throws IOException {
+            try {
+                for (Column column : this.columns) {
+                    column.flush();
+                }
+                this.drain(true);
+                long footerOffset = this.position;
+                this.out.writeInt(this.columns.size());
+                for (Column column : this.columns) {
+                    this.out.writeUTF(column.name);
+                    this.out.writeByte(column.type);
+                    this.out.writeInt(column.chunks.size());
+                    for (Chunk chunk : column.chunks) {
+                        this.out.writeLong(chunk.offset);
+                        this.out.writeInt(chunk.compressedLength);
+                        this.out.writeInt(chunk.rawLength);
+                        this.out.writeInt(chunk.rows);
+                    }
+                }
+                this.out.writeLong(footerOffset);
+                this.out.writeInt(magicNumber);
+            }
+            finally {
+                this.executor.shutdown();
+                this.out.close();
+            }
+        }
+    }
+
+    /**
+     * A compressed chunk of one column, and where it was written.
+     */
+    private static class Chunk {
+        private Column column;
+        private byte[] data;
+        private int compressedLength;
+        private int rawLength;
+        private int rows;
+        private long offset;
+
+        private Chunk(Column column, byte[] data, int rows, int rawLength) {
+            this.column = column;
+            this.data = data;
+            this.compressedLength = data.length;
+            this.rawLength = rawLength;
+            this.rows = rows;
+        }
+    }
+
+    /**
+     * The part of a column being written that all types share: its
+     * name, the chunks written so far, and the current chunk's raw
+     * little-endian bytes.
+     */
+    private abstract static class Column {
+        private Writer writer;
+        private String name;
+        private byte type;
+        private ArrayList<Chunk> chunks;
+        protected ByteBuffer buffer;
+        protected int rows;
+
+        private Column(Writer writer, String name, byte type, int bytesPerValue) {
+            this.writer = writer;
+            this.name = name;
+            this.type = type;
+            this.chunks = new ArrayList<Chunk>();
+            this.buffer = this.newBuffer(writer.chunkRows * bytesPerValue);
+        }
+
+        private ByteBuffer newBuffer(int capacity) {
+            return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        /**
+         * Make room for one more value of up to bytes bytes, handing
+         * the current chunk over if it is full.
+         */
+        protected void reserve(int bytes) throws IOException {
+            if (this.rows == this.writer.chunkRows) {
+                this.flush();
+            }
+            if (this.buffer.remaining() < bytes) {
+                ByteBuffer larger = this.newBuffer(Math.max(2 * this.buffer.capacity(), this.buffer.position() + bytes));
+                this.buffer.flip();
+                larger.put(this.buffer);
+                this.buffer = larger;
+            }
+            this.rows++;
+        }
+
+        private void flush() throws IOException {
+            if (this.rows > 0) {
+                int capacity = this.buffer.capacity();
+                this.writer.submit(this, this.buffer.array(), this.buffer.position(), this.rows);
+                this.buffer = this.newBuffer(capacity);
+                this.rows = 0;
+            }
+        }
+    }
+
+    public static class IntColumn extends Column {
+        private IntColumn(Writer writer, String name) {
+            super(writer, name, intType, 4);
+        }
+
+        public void add(int value) throws IOException {
+            this.reserve(4);
+            this.buffer.putInt(value);
+        }
+    }
+
+    public static class DoubleColumn extends Column {
+        private DoubleColumn(Writer writer, String name) {
+            super(writer, name, doubleType, 8);
+        }
+
+        public void add(double value) throws IOException {
+            this.reserve(8);
+            this.buffer.putDouble(value);
+        }
+    }
+
+    /**
+     * Strings are stored as their UTF-8 length followed by their UTF-8
+     * bytes.
+     */
+    public static class StringColumn extends Column {
+        private StringColumn(Writer writer, String name) {
+            super(writer, name, stringType, 16);
+        }
+
+        public void add(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            this.reserve(4 + bytes.length);
+            this.buffer.putInt(bytes.length);
+            this.buffer.put(bytes);
+        }
+    }
+
+    /**
+     * Reads columns from a columnar file. Opening the file only reads
+     * its footer; each read method then seeks to and inflates only the
+     * chunks of the requested column.
+     */
+    public static class Reader implements Closeable {
+        private RandomAccessFile file;
+        private LinkedHashMap<String, ColumnInfo> columns;
+
+        public Reader(File file) throws IOException {
+            this.file = new RandomAccessFile(file, "r");
+            this.columns = new LinkedHashMap<String, ColumnInfo>();
+            long length = this.file.length();
+            this.file.seek(length - 12);
+            long footerOffset = this.file.readLong();
+            if (this.file.readInt() != magicNumber) {
+                this.file.close();
+                throw new IOException(file + " is not a columnar file.");
+            }
+            byte[] footer = new byte[(int)(length - 12 - footerOffset)];
+            this.file.seek(footerOffset);
+            this.file.readFully(footer);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(footer));
+            int numColumns = in.readInt();
+            for (int i = 0; i < numColumns; i++) {
+                ColumnInfo column = new ColumnInfo();
+                column.name = in.readUTF();
+                column.type = in.readByte();
+                int numChunks = in.readInt();
+                column.offsets = new long[numChunks];
+                column.compressedLengths = new int[numChunks];
+                column.rawLengths = new int[numChunks];
+                column.rows = new int[numChunks];
+                for (int j = 0; j < numChunks; j++) {
+                    column.offsets[j] = in.readLong();
+                    column.compressedLengths[j] = in.readInt();
+                    column.rawLengths[j] = in.readInt();
+                    column.rows[j] = in.readInt();
+                    column.totalRows += column.rows[j];
+                }
+                this.columns.put(column.name, column);
+            }
+        }
+
+        public Set<String> getColumnNames() {
+            return Collections.unmodifiableSet(this.columns.keySet());
+        }
+
+        public int getNumberOfRows(String name) throws IOException {
+            return this.getColumn(name, (byte)0).totalRows;
+        }
+
+        public int[] readIntColumn(String name) throws IOException {
+            ColumnInfo column = this.getColumn(name, intType);
+            int[] values = new int[column.totalRows];
+            int row = 0;
+            for (int j = 0; j < column.offsets.length; j++) {
+                ByteBuffer chunk = this.readChunk(column, j);
+                for (int k = 0; k < column.rows[j]; k++) {
+                    values[row++] = chunk.getInt();
+                }
+            }
+            return values;
+        }
+
+        public double[] readDoubleColumn(String name) throws IOException {
+            ColumnInfo column = this.getColumn(name, doubleType);
+            double[] values = new double[column.totalRows];
+            int row = 0;
+            for (int j = 0; j < column.offsets.length; j++) {
+                ByteBuffer chunk = this.readChunk(column, j);
+                for (int k = 0; k < column.rows[j]; k++) {
+                    values[row++] = chunk.getDouble();
+                }
+            }
+            return values;
+        }
+
+        public String[] readStringColumn(String name) throws IOException {
+            ColumnInfo column = this.getColumn(name, stringType);
+            String[] values = new String[column.totalRows];
+            int row = 0;
+            for (int j = 0; j < column.offsets.length; j++) {
+                ByteBuffer chunk = this.readChunk(column, j);
+                for (int k = 0; k < column.rows[j]; k++) {
+                    int length = chunk.getInt();
+                    values[row++] = new String(chunk.array(), chunk.position(), length, StandardCharsets.UTF_8);
+                    chunk.position(chunk.position() + length);
+                }
+            }
+            return values;
+        }
+
+        /**
+         * Look up a column, checking its type unless type is zero.
+         */
+        private ColumnInfo getColumn(String name, byte type) throws IOException {
+            ColumnInfo column = this.columns.get(name);
+            if (column == null) {
+                throw new IOException("No column named " + name + ".");
+            }
+            if (type != 0 && column.type != type) {
+                throw new IOException("Column " + name + " has type " + column.type + ", not " + type + ".");
+            }
+            return column;
+        }
+
+        private ByteBuffer readChunk(ColumnInfo column, int j) throws IOException {
+            byte[] compressed = new byte[column.compressedLengths[j]];
+            this.file.seek(column.offsets[j]);
+            this.file.readFully(compressed);
+            Inflater inflater = new Inflater();
+            inflater.setInput(compressed);
+            byte[] raw = new byte[column.rawLengths[j]];
+            try {
+                int n = 0;
+                while (n < raw.length && !(inflater.finished())) {
+                    int inflated = inflater.inflate(raw, n, raw.length - n);
+                    if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new IOException("Chunk " + j + " of column " + column.name + " is truncated.");
+                    }
+                    n += inflated;
+                }
+                if (n < raw.length) {
+                    throw new IOException("Chunk " + j + " of column " + column.name + " is shorter than its recorded length.");
+                }
+            }
+            catch (DataFormatException e) {
+                throw new IOException("Chunk " + j + " of column " + column.name + " is corrupt.", e);
+            }
+            finally {
+                inflater.end();
+            }
+            return ByteBuffer.wrap(raw).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        public void close() throws IOException {
+            this.file.close();
+        }
+    }
+
+    private static class ColumnInfo {
+        private String name;
+        private byte type;
+        private long[] offsets;
+        private int[] compressedLengths;
+        private int[] rawLengths;
+        private int[] rows;
+        private int totalRows;
+    }
+
+    /**
+     * Usage: ColumnarExport [db file] [FP database directory] [output directory]
+     *
+     * Writes graph.cols and patterns.cols to the output directory.
+     */
+    public static void main(String[] args) {
+        try {
+            String dbFilePath = (args.length > 0 ? args[0] : "/home/andy/programs/java/EECS 435 project/indirectDB.txt");
+            String fpDirectory = (args.length > 1 ? args[1] : "/home/andy/programs/java/EECS 435 project/");
+            String outputDirectory = (args.length > 2 ? args[2] : "/home/andy/programs/java/EECS 435 project");
+            TrialGraph g = new TrialGraph(dbFilePath);
+            g.rebuild();
+            long startTime = System.currentTimeMillis();
+            File graphFile = new File(outputDirectory + "/graph.cols");
+            exportGraph(g, graphFile, 1 << 16);
+            System.out.println("Exported " + g.getNumberOfEdges() + " edges to " + graphFile.length() + " bytes in " + (System.currentTimeMillis() - startTime) + " milliseconds.");
+            startTime = System.currentTimeMillis();
+            ArrayList<VerticalIndex.Itemset> itemsets = VerticalIndex.open(fpDirectory).mineFrequentItemsets(50, 2);
+            File patternFile = new File(outputDirectory + "/patterns.cols");
+            exportPatterns(itemsets, patternFile, 1 << 16);
+            System.out.println("Exported " + itemsets.size() + " frequent patterns to " + patternFile.length() + " bytes in " + (System.currentTimeMillis() - startTime) + " milliseconds.");
+        }
+        catch (Exception e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+        }
+    }
+}
@@ -6,6 +6,7 @@ import org.xml.sax.*;
 import org.w3c.dom.*;
 import java.util.*;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.lang.Integer;
 import java.lang.Math;
 
@@ -16,6 +17,8 @@ import java.lang.Math;
 public class FPMiner {
     public int minSupport = 50;
     public String directory;
+    /* Reads FPDB.txt; reused (with its buffer) for every pass over the file: */
+    private ByteTokenizer tokenizer;
     
     public FPMiner(String directory) {
         this.directory = directory;
@@ -23,7 +26,6 @@ public class FPMiner {
     
     public void mineFrequentPatterns() {
         try {
-            BufferedReader bufferedReader = new BufferedReader(new FileReader(new File(directory + "/FPDB.txt")));
             HashSet<String> set = this.getDistinctDrugs();
             ArrayList<String> frequentOnePatterns = this.getFrequentOnePatterns(set);
             ArrayList<String> frequentTwoPatterns = this.getFrequentTwoPatterns(frequentOnePatterns);
@@ -37,18 +39,36 @@ public class FPMiner {
         }
     }
     
+    /**
+     * Open FPDB.txt with the reusable tokenizer.
+     */
+    private ByteTokenizer openDatabase() throws IOException {
+        InputStream in = new FileInputStream(new File(directory + "/FPDB.txt"));
+        if (this.tokenizer == null) {
+            this.tokenizer = new ByteTokenizer(in);
+        }
+        else {
+            this.tokenizer.reset(in);
+        }
+        return this.tokenizer;
+    }
+    
     private HashSet<String> getDistinctDrugs() {
         try {
             HashSet<String> set = new HashSet<String>();
-            BufferedReader bufferedReader = new BufferedReader(new FileReader(new File(directory + "/FPDB.txt")));
-            String currentLine;
-            String[] strings;
-            while ((currentLine = bufferedReader.readLine()) != null) {
-                strings = currentLine.split("!");
-                for (int i = 0; i < strings.length; i++) {
-                    set.add(strings[i]);
+            ByteTokenizer.Dictionary<String> dictionary = new ByteTokenizer.Dictionary<String>(4096);
+            ByteTokenizer tokenizer = this.openDatabase();
+            while (tokenizer.nextLine()) {
+                int numFields = tokenizer.split((byte)'!', (byte)'!');
+                for (int i = 0; i < numFields; i++) {
+                    if (dictionary.get(tokenizer, i) == null) {
+                        String drug = tokenizer.getFieldString(i);
+                        dictionary.put(tokenizer, i, drug);
+                        set.add(drug);
+                    }
                 }
             }
+            tokenizer.close();
             return set;
         }
         catch (Exception e) {
@@ -58,22 +78,39 @@ public class FPMiner {
         return null;
     }
     
+    /**
+     * The support of a drug is the number of times any drug with the 
+     * same name, ignoring case, appears in the database. Every field 
+     * is counted in a single pass, under the lower case form of its 
+     * name.
+     */
     private ArrayList<String> getFrequentOnePatterns(HashSet<String> set) {
         try {
-            ArrayList<String> patterns = new ArrayList<String>();
+            HashMap<String, int[]> supports = new HashMap<String, int[]>(set.size() * 2);
+            ByteTokenizer.Dictionary<int[]> counters = new ByteTokenizer.Dictionary<int[]>(set.size());
             for (String s : set) {
-                int support = 0;
-                BufferedReader bufferedReader = new BufferedReader(new FileReader(new File(directory + "/FPDB.txt")));
-                String currentLine;
-                while ((currentLine = bufferedReader.readLine()) != null) {
-                    String[] strings = currentLine.split("!");
-                    for (int i = 0; i < strings.length; i++) {
-                        if (strings[i].compareToIgnoreCase(s) == 0) {
-                            support++;
-                        }
+                int[] support = supports.get(s.toLowerCase(Locale.ROOT));
+                if (support == null) {
+                    support = new int[1];
+                    supports.put(s.toLowerCase(Locale.ROOT), support);
+                }
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                counters.put(bytes, 0, bytes.length, support);
+            }
+            ByteTokenizer tokenizer = this.openDatabase();
+            while (tokenizer.nextLine()) {
+                int numFields = tokenizer.split((byte)'!', (byte)'!');
+                for (int i = 0; i < numFields; i++) {
+                    int[] support = counters.get(tokenizer, i);
+                    if (support != null) {
+                        support[0]++;
                     }
                 }
-                if (support >= minSupport) {
+            }
+            tokenizer.close();
+            ArrayList<String> patterns = new ArrayList<String>();
+            for (String s : set) {
+                if (supports.get(s.toLowerCase(Locale.ROOT))[0] >= minSupport) {
                     patterns.add(s);
                 }
             }
@@ -85,33 +122,64 @@ public class FPMiner {
         return null;
     }
     
+    /**
+     * The support of a pair of drugs is the number of lines containing 
+     * both. Every pair is counted in a single pass: each line's 
+     * frequent drugs are mapped to their index in frequentOnePatterns 
+     * (repeats within a line are dropped), and every pair of indexes 
+     * increments a counter in a triangular matrix.
+     */
     private ArrayList<String> getFrequentTwoPatterns(ArrayList<String> frequentOnePatterns) {
         ArrayList<String> patterns = new ArrayList<String>();
         try {
-            for (int i = 0; i < frequentOnePatterns.size(); i++) {
-                for (int j = i; j < frequentOnePatterns.size(); j++) {
-                    int support = 0;
-                    String s1 = frequentOnePatterns.get(i);
-                    String s2 = frequentOnePatterns.get(j);
-                    if (!(s1.equals(s2))) {
-                        BufferedReader bufferedReader = new BufferedReader(new FileReader(new File(directory + "/FPDB.txt")));
-                        String currentLine;
-                        while ((currentLine = bufferedReader.readLine()) != null) {
-                            HashSet<String> set = new HashSet<String>();
-                            String[] strings = currentLine.split("!");
-                            for (int k = 0; k < strings.length; k++) {
-                                set.add(strings[k]);
-                            }
-                            if (set.contains(s1) && set.contains(s2)) {
-                                support++;
-                            }
+            int n = frequentOnePatterns.size();
+            if ((long)n * (n - 1) / 2 > Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("Too many frequent drugs (" + n + ") to count their pairs.");
+            }
+            ByteTokenizer.Dictionary<Integer> indexes = new ByteTokenizer.Dictionary<Integer>(n);
+            for (int i = 0; i < n; i++) {
+                byte[] bytes = frequentOnePatterns.get(i).getBytes(StandardCharsets.UTF_8);
+                if (indexes.get(bytes, 0, bytes.length) == null) {
+                    indexes.put(bytes, 0, bytes.length, i);
+                }
+            }
+            int[] pairSupports = new int[(int)((long)n * (n - 1) / 2)];
+            int[] lineIndexes = new int[16];
+            ByteTokenizer tokenizer = this.openDatabase();
+            while (tokenizer.nextLine()) {
+                int numFields = tokenizer.split((byte)'!', (byte)'!');
+                int numIndexes = 0;
+                for (int k = 0; k < numFields; k++) {
+                    Integer index = indexes.get(tokenizer, k);
+                    if (index != null) {
+                        if (numIndexes == lineIndexes.length) {
+                            lineIndexes = Arrays.copyOf(lineIndexes, numIndexes * 2);
                         }
-                        if (support >= minSupport) {
-                            patterns.add(s1 + ", " + s2);
+                        lineIndexes[numIndexes++] = index;
+                    }
+                }
+                Arrays.sort(lineIndexes, 0, numIndexes);
+                for (int a = 0; a < numIndexes; a++) {
+                    if (a > 0 && lineIndexes[a] == lineIndexes[a - 1]) {
+                        continue;
+                    }
+                    for (int b = a + 1; b < numIndexes; b++) {
+                        if (lineIndexes[b] != lineIndexes[b - 1]) {
+                            pairSupports[pairIndex(lineIndexes[a], lineIndexes[b], n)]++;
                         }
                     }
                 }
             }
+            tokenizer.close();
+            for (int i = 0; i < n; i++) {
+                for (int j = i + 1; j < n; j++) {
+                    String s1 = frequentOnePatterns.get(i);
+                    String s2 = frequentOnePatterns.get(j);
+                    if (!(s1.equals(s2)) && pairSupports[pairIndex(i, j, n)] >= minSupport) {
+                        patterns.add(s1 + ", " + s2);
+                    }
+                }
+            }
             return patterns;
         }
         catch (Exception e) {
@@ -120,6 +188,14 @@ public class FPMiner {
         return null;
     }
     
+    /**
+     * The position of the pair (i, j), with i < j < n, in a triangular 
+     * matrix of pair counters stored row by row.
+     */
+    private static int pairIndex(int i, int j, int n) {
+        return (int)((long)i * (2 * n - i - 1) / 2 + (j - i - 1));
+    }
+    
     public static void main(String[] args) {
         FPMiner miner = new FPMiner("/home/andy/programs/java/EECS 435 project/");
         miner.mineFrequentPatterns();
@@ -0,0 +1,355 @@
+import java.util.*;
+import java.util.stream.*;
+import java.io.*;
+import java.lang.Integer;
+import java.lang.Math;
+
+/**
+ * Analytics over the pruned drug graph: weighted PageRank to find the
+ * drugs that are hubs of interaction, connected components, and label
+ * propagation to find communities of drugs that behave alike. The
+ * graph is copied into primitive arrays (compressed sparse rows) once,
+ * and every algorithm runs in parallel over those arrays.
+ *
+ * Drug-drug weights are signed, and none of these algorithms make sense
+ * with negative weights, so every view is built for one SignMode that
+ * says how signed weights are turned into non-negative ones.
+ */
+public class GraphAnalytics {
+    /**
+     * How signed drug-drug weights are treated. ABSOLUTE uses the
+     * strength of a connection regardless of sign, POSITIVE keeps only
+     * the positive edges, and NEGATIVE keeps only the negative edges
+     * (with their weights negated).
+     */
+    public enum SignMode {
+        ABSOLUTE, POSITIVE, NEGATIVE;
+
+        public double apply(double weight) {
+            if (this == ABSOLUTE) {
+                return Math.abs(weight);
+            }
+            else if (this == POSITIVE) {
+                return Math.max(weight, 0.0);
+            }
+            else {
+                return Math.max(-weight, 0.0);
+            }
+        }
+    }
+
+    /* The drug names, indexed by node id: */
+    private String[] names;
+    /* Neighbors of node v are targets[offsets[v]] to targets[offsets[v + 1] - 1]: */
+    private int[] offsets;
+    private int[] targets;
+    /* The non-negative weight of each entry in targets: */
+    private double[] weights;
+    /* The sum of the weights of each node's edges: */
+    private double[] strengths;
+    private SignMode signMode;
+
+    /**
+     * Build the primitive array view of a graph's edges. Every edge
+     * appears twice (once from each end), and edges whose weight is
+     * zero under the sign mode are left out.
+     */
+    public GraphAnalytics(Collection<TrialGraph.TrialEdge> edges, SignMode signMode) {
+        this.signMode = signMode;
+        IdentityHashMap<TrialGraph.TrialNode, Integer> ids = new IdentityHashMap<TrialGraph.TrialNode, Integer>();
+        ArrayList<String> nameList = new ArrayList<String>();
+        int[] degrees = new int[16];
+        for (TrialGraph.TrialEdge e : edges) {
+            if (signMode.apply(e.weight) == 0.0) {
+                continue;
+            }
+            int id1 = getId(ids, nameList, e.node1);
+            int id2 = getId(ids, nameList, e.node2);
+            if (nameList.size() > degrees.length) {
+                degrees = Arrays.copyOf(degrees, Math.max(nameList.size(), degrees.length * 2));
+            }
+            degrees[id1]++;
+            degrees[id2]++;
+        }
+        int n = nameList.size();
+        this.names = nameList.toArray(new String[n]);
+        this.offsets = new int[n + 1];
+        for (int v = 0; v < n; v++) {
+            this.offsets[v + 1] = this.offsets[v] + degrees[v];
+        }
+        this.targets = new int[this.offsets[n]];
+        this.weights = new double[this.offsets[n]];
+        int[] next = Arrays.copyOf(this.offsets, n);
+        for (TrialGraph.TrialEdge e : edges) {
+            double weight = signMode.apply(e.weight);
+            if (weight == 0.0) {
+                continue;
+            }
+            int id1 = ids.get(e.node1);
+            int id2 = ids.get(e.node2);
+            this.targets[next[id1]] = id2;
+            this.weights[next[id1]++] = weight;
+            this.targets[next[id2]] = id1;
+            this.weights[next[id2]++] = weight;
+        }
+        this.strengths = new double[n];
+        IntStream.range(0, n).parallel().forEach(v -> {
+            double strength = 0.0;
+            for (int k = this.offsets[v]; k < this.offsets[v + 1]; k++) {
+                strength += this.weights[k];
+            }
+            this.strengths[v] = strength;
+        });
+    }
+
+    private static int getId(IdentityHashMap<TrialGraph.TrialNode, Integer> ids, ArrayList<String> nameList, TrialGraph.TrialNode node) {
+        Integer id = ids.get(node);
+        if (id == null) {
+            id = nameList.size();
+            ids.put(node, id);
+            nameList.add(node.getContents());
+        }
+        return id;
+    }
+
+    public int getNumberOfNodes() {
+        return this.names.length;
+    }
+
+    /**
+     * The number of (undirected) edges in this view.
+     */
+    public int getNumberOfEdges() {
+        return this.targets.length / 2;
+    }
+
+    public String getName(int node) {
+        return this.names[node];
+    }
+
+    /**
+     * Weighted PageRank: a random walker follows an edge with
+     * probability proportional to its weight, and jumps to a random
+     * node with probability 1 - damping. Nodes are updated in parallel
+     * by pulling rank from their neighbors. Iteration stops once the
+     * ranks change by less than tolerance in total, or after
+     * maxIterations.
+     */
+    public double[] pageRank(double damping, double tolerance, int maxIterations) {
+        int n = this.names.length;
+        double[] rank = new double[n];
+        double[] nextRank = new double[n];
+        Arrays.fill(rank, 1.0 / n);
+        /* Each node's rank divided by its strength, i.e. what it gives per unit of edge weight: */
+        double[] share = new double[n];
+        for (int iteration = 0; iteration < maxIterations; iteration++) {
+            final double[] current = rank;
+            final double[] next = nextRank;
+            IntStream.range(0, n).parallel().forEach(v -> {
+                share[v] = (this.strengths[v] > 0 ? current[v] / this.strengths[v] : 0.0);
+            });
+            /* Nodes without edges spread their rank evenly over every node: */
+            double danglingRank = IntStream.range(0, n).parallel().filter(v -> this.strengths[v] == 0).mapToDouble(v -> current[v]).sum();
+            final double base = (1.0 - damping) / n + damping * danglingRank / n;
+            IntStream.range(0, n).parallel().forEach(v -> {
+                double sum = 0.0;
+                for (int k = this.offsets[v]; k < this.offsets[v + 1]; k++) {
+                    sum += share[this.targets[k]] * this.weights[k];
+                }
+                next[v] = base + damping * sum;
+            });
+            double change = IntStream.range(0, n).parallel().mapToDouble(v -> Math.abs(next[v] - current[v])).sum();
+            rank = next;
+            nextRank = current;
+            if (change < tolerance) {
+                break;
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * Label every node with the smallest node id in its connected
+     * component. Labels are propagated in parallel rounds, each node
+     * taking the smallest label among itself and its neighbors, with
+     * pointer jumping (a node adopts its label's label) to shorten the
+     * number of rounds.
+     */
+    public int[] connectedComponents() {
+        int n = this.names.length;
+        int[] labels = new int[n];
+        for (int v = 0; v < n; v++) {
+            labels[v] = v;
+        }
+        boolean changed = true;
+        while (changed) {
+            int[] previous = labels.clone();
+            changed = IntStream.range(0, n).parallel().map(v -> {
+                int label = previous[v];
+                for (int k = this.offsets[v]; k < this.offsets[v + 1]; k++) {
+                    label = Math.min(label, previous[this.targets[k]]);
+                }
+                label = Math.min(label, previous[label]);
+                labels[v] = label;
+                return (label != previous[v] ? 1 : 0);
+            }).sum() > 0;
+        }
+        return labels;
+    }
+
+    /**
+     * Find communities by weighted label propagation: every node starts
+     * in its own community and repeatedly joins the community with the
+     * greatest total edge weight among its neighbors (ties go to the
+     * smallest label). To keep synchronous parallel updates from
+     * oscillating, each round only updates half of the nodes, chosen
+     * by a hash of the node id and the round number. Stops when a round
+     * moves fewer than minMoves nodes, or after maxIterations.
+     */
+    public int[] labelPropagation(int maxIterations, int minMoves) {
+        int n = this.names.length;
+        int[] labels = new int[n];
+        for (int v = 0; v < n; v++) {
+            labels[v] = v;
+        }
+        /* Per-thread scratch space for summing the weight of each neighboring label: */
+        ThreadLocal<double[]> labelWeights = ThreadLocal.withInitial(() -> new double[n]);
+        ThreadLocal<int[]> touchedLabels = ThreadLocal.withInitial(() -> new int[n]);
+        for (int iteration = 0; iteration < maxIterations; iteration++) {
+            final int round = iteration;
+            int[] previous = labels.clone();
+            int moves = IntStream.range(0, n).parallel().map(v -> {
+                if (((v * 0x9E3779B9 + round * 0x85EBCA6B) >>> 31) != 0) {
+                    return 0;
+                }
+                double[] weightOf = labelWeights.get();
+                int[] touched = touchedLabels.get();
+                int numTouched = 0;
+                for (int k = this.offsets[v]; k < this.offsets[v + 1]; k++) {
+                    int label = previous[this.targets[k]];
+                    if (weightOf[label] == 0.0) {
+                        touched[numTouched++] = label;
+                    }
+                    weightOf[label] += this.weights[k];
+                }
+                int best = previous[v];
+                double bestWeight = -1.0;
+                for (int i = 0; i < numTouched; i++) {
+                    int label = touched[i];
+                    if (weightOf[label] > bestWeight || (weightOf[label] == bestWeight && label < best)) {
+                        best = label;
+                        bestWeight = weightOf[label];
+                    }
+                    weightOf[label] = 0.0;
+                }
+                labels[v] = best;
+                return (best != previous[v] ? 1 : 0);
+            }).sum();
+            if (moves < minMoves) {
+                break;
+            }
+        }
+        return labels;
+    }
+
+    /**
+     * Group nodes by label, largest group first.
+     */
+    public static ArrayList<int[]> groupByLabel(int[] labels) {
+        HashMap<Integer, ArrayList<Integer>> groups = new HashMap<Integer, ArrayList<Integer>>();
+        for (int v = 0; v < labels.length; v++) {
+            ArrayList<Integer> group = groups.get(labels[v]);
+            if (group == null) {
+                group = new ArrayList<Integer>();
+                groups.put(labels[v], group);
+            }
+            group.add(v);
+        }
+        ArrayList<int[]> result = new ArrayList<int[]>(groups.size());
+        for (ArrayList<Integer> group : groups.values()) {
+            int[] members = new int[group.size()];
+            for (int i = 0; i < members.length; i++) {
+                members[i] = group.get(i);
+            }
+            result.add(members);
+        }
+        Collections.sort(result, new Comparator<int[]>() {
+            public int compare(int[] g1, int[] g2) {
+                return Integer.compare(g2.length, g1.length);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Return the ids of the k nodes with the highest scores, highest
+     * first.
+     */
+    public static int[] topK(double[] scores, int k) {
+        Integer[] order = new Integer[scores.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer i1, Integer i2) {
+                return Double.compare(scores[i2], scores[i1]);
+            }
+        });
+        int[] top = new int[Math.min(k, order.length)];
+        for (int i = 0; i < top.length; i++) {
+            top[i] = order[i];
+        }
+        return top;
+    }
+
+    /**
+     * Print a summary of every analysis for one sign mode.
+     */
+    public void printSummary(int numCommunities) {
+        System.out.println("\n" + this.signMode + " view: " + this.getNumberOfNodes() + " drugs and " + this.getNumberOfEdges() + " edges.");
+        long startTime = System.currentTimeMillis();
+        double[] rank = this.pageRank(0.85, 1e-9, 100);
+        System.out.println("PageRank took " + (System.currentTimeMillis() - startTime) + " milliseconds. Top drugs:");
+        for (int v : topK(rank, 20)) {
+            System.out.println(this.names[v] + " (" + rank[v] + ")");
+        }
+        startTime = System.currentTimeMillis();
+        ArrayList<int[]> components = groupByLabel(this.connectedComponents());
+        System.out.println("Connected components took " + (System.currentTimeMillis() - startTime) + " milliseconds: " + components.size() + " components, the largest with " + (components.isEmpty() ? 0 : components.get(0).length) + " drugs.");
+        startTime = System.currentTimeMillis();
+        ArrayList<int[]> communities = groupByLabel(this.labelPropagation(100, 1));
+        System.out.println("Label propagation took " + (System.currentTimeMillis() - startTime) + " milliseconds: " + communities.size() + " communities.");
+        for (int i = 0; i < numCommunities && i < communities.size(); i++) {
+            int[] members = communities.get(i);
+            double[] memberRank = new double[members.length];
+            for (int j = 0; j < members.length; j++) {
+                memberRank[j] = rank[members[j]];
+            }
+            StringBuilder builder = new StringBuilder();
+            for (int j : topK(memberRank, 5)) {
+                builder.append(builder.length() > 0 ? ", " : "");
+                builder.append(this.names[members[j]]);
+            }
+            System.out.println("Community of " + members.length + " drugs: " + builder.toString());
+        }
+    }
+
+    public static void main(String[] args) {
+        TrialGraph g = new TrialGraph(args.length > 0 ? args[0] : "/home/andy/programs/java/EECS 435 project/indirectDB.txt");
+        try {
+            g.loadGraph();
+        }
+        catch (IOException e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+            return;
+        }
+        g.pruneEffectNodes();
+        for (SignMode signMode : SignMode.values()) {
+            long startTime = System.currentTimeMillis();
+            GraphAnalytics analytics = new GraphAnalytics(g.getEdges().values(), signMode);
+            System.out.println("\nBuilding the " + signMode + " view took " + (System.currentTimeMillis() - startTime) + " milliseconds.");
+            analytics.printSummary(10);
+        }
+    }
+}
@@ -0,0 +1,536 @@
+import java.lang.management.*;
+import java.nio.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.io.*;
+import java.lang.Integer;
+import java.lang.Math;
+
+/**
+ * A version of TrialGraph whose node dictionaries, edge keys, weights
+ * and counts all live off the Java heap, in direct ByteBuffers handed
+ * out by an Arena with an explicit memory budget. The garbage collector
+ * never has to trace the graph, so building and pruning a graph with
+ * millions of edges causes next to no GC work.
+ *
+ * The graph is the same as the one TrialGraph builds (with exact
+ * pruning), and printGraphToFile() writes it in the same format. Nodes
+ * are identified by int ids: drugs and effects have separate
+ * dictionaries, and an edge's key packs the ids of its two nodes into a
+ * long. The count of a drug-effect edge is the number of db lines for
+ * that drug and effect, and the count of a drug-drug edge is the number
+ * of effect nodes the two drugs share.
+ */
+public class OffHeapGraph {
+    private String dbFilePath;
+    private Arena arena;
+    private NodeDictionary drugs;
+    private NodeDictionary effects;
+    /* Keyed by effect id << 32 | drug id, holding the +/- phase weight: */
+    private EdgeTable drugEffectEdges;
+    /* Keyed by the smaller drug id << 32 | the larger drug id: */
+    private EdgeTable drugDrugEdges;
+
+    public OffHeapGraph(String dbFilePath, long budgetBytes) {
+        this.dbFilePath = dbFilePath;
+        this.arena = new Arena(budgetBytes);
+        this.drugs = new NodeDictionary(this.arena, 1024);
+        this.effects = new NodeDictionary(this.arena, 1024);
+        this.drugEffectEdges = new EdgeTable(this.arena, 1 << 16);
+    }
+
+    /**
+     * Read the db file, whose lines have the same format as for
+     * TrialGraph.loadGraph(), into the drug-effect edge table. Lines
+     * are parsed with TrialGraph.parseLine(), so the same malformed
+     * lines are reported and skipped as by TrialGraph. Drug and effect
+     * names are interned straight from the tokenizer's buffer, so no
+     * String is created for a line; names are only decoded when the
+     * graph is printed.
+     */
+    public void loadGraph() throws IOException {
+        ByteTokenizer tokenizer = new ByteTokenizer(new FileInputStream(new File(this.dbFilePath)));
+        byte[] conditionBytes = TrialGraph.conditionIdentifierString.getBytes(StandardCharsets.UTF_8);
+        while (tokenizer.nextLine()) {
+            try {
+                int counter = TrialGraph.parseLine(tokenizer, conditionBytes);
+                byte[] buffer = tokenizer.getBuffer();
+                int drug = this.drugs.intern(buffer, tokenizer.getFieldStart(0), tokenizer.getFieldLength(0));
+                int effect = this.effects.intern(buffer, tokenizer.getFieldStart(1), tokenizer.getFieldLength(1));
+                this.drugEffectEdges.add(((long)effect << 32) | drug, TrialGraph.counterWeight(counter));
+            }
+            catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+                System.out.println(tokenizer.getLineString());
+            }
+        }
+        tokenizer.close();
+    }
+
+    /**
+     * Replace the effect nodes with drug-drug edges, exactly like
+     * TrialGraph.pruneEffectNodes(). The drug-effect edges are first
+     * grouped by effect into off-heap arrays (compressed sparse rows),
+     * then every pair of drugs sharing an effect is connected.
+     */
+    public void pruneEffectNodes() {
+        int numEffects = this.effects.size();
+        int numEdges = this.drugEffectEdges.size();
+        ByteBuffer offsets = this.arena.allocate(4L * (numEffects + 1));
+        ByteBuffer drugIds = this.arena.allocate(4L * numEdges);
+        ByteBuffer weights = this.arena.allocate(8L * numEdges);
+        for (int slot = 0; slot < this.drugEffectEdges.capacity(); slot++) {
+            long key = this.drugEffectEdges.keyAt(slot);
+            if (key != EdgeTable.EMPTY) {
+                int effect = (int)(key >>> 32);
+                offsets.putInt(4 * (effect + 1), offsets.getInt(4 * (effect + 1)) + 1);
+            }
+        }
+        for (int effect = 0; effect < numEffects; effect++) {
+            offsets.putInt(4 * (effect + 1), offsets.getInt(4 * (effect + 1)) + offsets.getInt(4 * effect));
+        }
+        ByteBuffer next = this.arena.allocate(4L * numEffects);
+        for (int effect = 0; effect < numEffects; effect++) {
+            next.putInt(4 * effect, offsets.getInt(4 * effect));
+        }
+        for (int slot = 0; slot < this.drugEffectEdges.capacity(); slot++) {
+            long key = this.drugEffectEdges.keyAt(slot);
+            if (key != EdgeTable.EMPTY) {
+                int effect = (int)(key >>> 32);
+                int position = next.getInt(4 * effect);
+                drugIds.putInt(4 * position, (int)key);
+                weights.putDouble(8 * position, this.drugEffectEdges.weightAt(slot));
+                next.putInt(4 * effect, position + 1);
+            }
+        }
+        this.arena.release(next);
+        this.drugDrugEdges = new EdgeTable(this.arena, 1 << 16);
+        for (int effect = 0; effect < numEffects; effect++) {
+            int start = offsets.getInt(4 * effect);
+            int end = offsets.getInt(4 * (effect + 1));
+            for (int i = start; i < end; i++) {
+                int drug1 = drugIds.getInt(4 * i);
+                double weight1 = weights.getDouble(8 * i);
+                for (int j = i + 1; j < end; j++) {
+                    int drug2 = drugIds.getInt(4 * j);
+                    long key = (drug1 < drug2 ? ((long)drug1 << 32) | drug2 : ((long)drug2 << 32) | drug1);
+                    this.drugDrugEdges.add(key, TrialGraph.interConnectWeight(weight1, weights.getDouble(8 * j)));
+                }
+            }
+        }
+        this.arena.release(offsets);
+        this.arena.release(drugIds);
+        this.arena.release(weights);
+    }
+
+    public int getNumberOfNodes() {
+        return this.drugs.size() + (this.drugDrugEdges == null ? this.effects.size() : 0);
+    }
+
+    public int getNumberOfEdges() {
+        return (this.drugDrugEdges == null ? this.drugEffectEdges : this.drugDrugEdges).size();
+    }
+
+    /**
+     * The off-heap bytes this graph's arena counts as in use (see
+     * Arena).
+     */
+    public long getOffHeapBytes() {
+        return this.arena.getUsedBytes();
+    }
+
+    /**
+     * Print the drug-drug edges to graph.txt in the same format as
+     * TrialGraph.printGraphToFile().
+     */
+    public void printGraphToFile(String directory) throws IOException {
+        BufferedWriter bufferedWriter = new BufferedWriter(new FileWriter(new File(directory + "/graph.txt")));
+        for (int slot = 0; slot < this.drugDrugEdges.capacity(); slot++) {
+            long key = this.drugDrugEdges.keyAt(slot);
+            if (key != EdgeTable.EMPTY) {
+                String name1 = this.drugs.getName((int)(key >>> 32));
+                String name2 = this.drugs.getName((int)key);
+                if (name1.compareToIgnoreCase(name2) > 0) {
+                    String swap = name1;
+                    name1 = name2;
+                    name2 = swap;
+                }
+                bufferedWriter.write(name1 + "--- (" + this.drugDrugEdges.weightAt(slot) + ") ---" + name2 + "\n");
+            }
+        }
+        bufferedWriter.close();
+    }
+
+    /**
+     * Hands out direct ByteBuffers while keeping track of how many
+     * bytes are in use, and refuses to go over its budget. Buffers are
+     * zero-filled.
+     *
+     * The accounting is logical: release() only subtracts a buffer's
+     * size from the bytes in use. The JVM cannot free a direct buffer
+     * explicitly, so its memory is only returned once the buffer object
+     * is collected, and the direct memory actually allocated can be
+     * higher than the logical figure until then. getDirectMemoryBytes()
+     * reports the actual figure, from the JVM's "direct" buffer pool.
+     */
+    public static class Arena {
+        private long budgetBytes;
+        private long usedBytes;
+        private long peakBytes;
+
+        public Arena(long budgetBytes) {
+            this.budgetBytes = budgetBytes;
+        }
+
+        public ByteBuffer allocate(long bytes) {
+            if (bytes > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Cannot allocate a single off-heap buffer of " + bytes + " bytes.");
+            }
+            if (this.usedBytes + bytes > this.budgetBytes) {
+                throw new IllegalStateException("Off-heap budget of " + this.budgetBytes + " bytes exceeded: " + this.usedBytes + " bytes logically in use (" + getDirectMemoryBytes() + " bytes of direct memory actually allocated), " + bytes + " more requested.");
+            }
+            this.usedBytes += bytes;
+            this.peakBytes = Math.max(this.peakBytes, this.usedBytes);
+            return ByteBuffer.allocateDirect((int)bytes).order(ByteOrder.nativeOrder());
+        }
+
+        public void release(ByteBuffer buffer) {
+            this.usedBytes -= buffer.capacity();
+        }
+
+        public long getUsedBytes() {
+            return this.usedBytes;
+        }
+
+        public long getPeakBytes() {
+            return this.peakBytes;
+        }
+
+        public long getBudgetBytes() {
+            return this.budgetBytes;
+        }
+
+        /**
+         * The direct memory currently allocated by the whole JVM,
+         * including released buffers that have not been collected yet,
+         * or -1 if the JVM does not report it.
+         */
+        public static long getDirectMemoryBytes() {
+            for (BufferPoolMXBean bean : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+                if (bean.getName().equals("direct")) {
+                    return bean.getMemoryUsed();
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * An open-addressing hash table from long keys to a double weight
+     * and an int count, stored in three off-heap buffers. Keys are
+     * never negative, so -1 marks an empty slot. The table doubles when
+     * it is half full.
+     */
+    public static class EdgeTable {
+        public static final long EMPTY = -1L;
+        private Arena arena;
+        private ByteBuffer keys;
+        private ByteBuffer weights;
+        private ByteBuffer counts;
+        private int capacity;
+        private int size;
+
+        public EdgeTable(Arena arena, int capacity) {
+            this.arena = arena;
+            this.allocate(capacity);
+        }
+
+        private void allocate(int capacity) {
+            this.capacity = capacity;
+            this.size = 0;
+            this.keys = this.arena.allocate(8L * capacity);
+            this.weights = this.arena.allocate(8L * capacity);
+            this.counts = this.arena.allocate(4L * capacity);
+            for (int slot = 0; slot < capacity; slot++) {
+                this.keys.putLong(8 * slot, EMPTY);
+            }
+        }
+
+        /**
+         * Add weight to the entry for key (creating it if needed) and
+         * increment its count.
+         */
+        public void add(long key, double weight) {
+            int slot = this.find(key);
+            if (this.keys.getLong(8 * slot) == EMPTY) {
+                if (2 * (this.size + 1) > this.capacity) {
+                    this.grow();
+                    slot = this.find(key);
+                }
+                this.keys.putLong(8 * slot, key);
+                this.size++;
+            }
+            this.weights.putDouble(8 * slot, this.weights.getDouble(8 * slot) + weight);
+            this.counts.putInt(4 * slot, this.counts.getInt(4 * slot) + 1);
+        }
+
+        /**
+         * Return the slot holding key, or the empty slot where it would
+         * go.
+         */
+        private int find(long key) {
+            int mask = this.capacity - 1;
+            int slot = (int)mix(key) & mask;
+            while (true) {
+                long slotKey = this.keys.getLong(8 * slot);
+                if (slotKey == key || slotKey == EMPTY) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        private void grow() {
+            ByteBuffer oldKeys = this.keys;
+            ByteBuffer oldWeights = this.weights;
+            ByteBuffer oldCounts = this.counts;
+            int oldCapacity = this.capacity;
+            int oldSize = this.size;
+            this.allocate(oldCapacity * 2);
+            for (int slot = 0; slot < oldCapacity; slot++) {
+                long key = oldKeys.getLong(8 * slot);
+                if (key != EMPTY) {
+                    int newSlot = this.find(key);
+                    this.keys.putLong(8 * newSlot, key);
+                    this.weights.putDouble(8 * newSlot, oldWeights.getDouble(8 * slot));
+                    this.counts.putInt(4 * newSlot, oldCounts.getInt(4 * slot));
+                }
+            }
+            this.size = oldSize;
+            this.arena.release(oldKeys);
+            this.arena.release(oldWeights);
+            this.arena.release(oldCounts);
+        }
+
+        public int size() {
+            return this.size;
+        }
+
+        public int capacity() {
+            return this.capacity;
+        }
+
+        public long keyAt(int slot) {
+            return this.keys.getLong(8 * slot);
+        }
+
+        public double weightAt(int slot) {
+            return this.weights.getDouble(8 * slot);
+        }
+
+        public int countAt(int slot) {
+            return this.counts.getInt(4 * slot);
+        }
+
+        private static long mix(long key) {
+            key ^= key >>> 33;
+            key *= 0xff51afd7ed558ccdL;
+            key ^= key >>> 33;
+            key *= 0xc4ceb9fe1a85ec53L;
+            key ^= key >>> 33;
+            return key;
+        }
+    }
+
+    /**
+     * Assigns consecutive int ids to node names. The UTF-8 bytes of the
+     * names are appended to an off-heap byte arena, each id's offset
+     * and length are kept in an off-heap int array, and an off-heap
+     * open-addressing table maps name hashes to ids.
+     */
+    public static class NodeDictionary {
+        private Arena arena;
+        private ByteBuffer bytes;
+        private int bytesUsed;
+        /* Two ints per id: the offset and the length of its name in bytes: */
+        private ByteBuffer names;
+        /* Each slot holds id + 1, or 0 if empty: */
+        private ByteBuffer slots;
+        private int capacity;
+        private int size;
+
+        public NodeDictionary(Arena arena, int capacity) {
+            this.arena = arena;
+            this.capacity = capacity;
+            this.bytes = arena.allocate(16L * capacity);
+            this.names = arena.allocate(8L * capacity);
+            this.slots = arena.allocate(4L * 2 * capacity);
+        }
+
+        /**
+         * Return the id of name, assigning the next id if it is new.
+         */
+        public int intern(String name) {
+            byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            return this.intern(nameBytes, 0, nameBytes.length);
+        }
+
+        /**
+         * Return the id of the name whose UTF-8 bytes are length bytes
+         * of buffer starting at offset, assigning the next id if it is
+         * new. Nothing is allocated on the heap: the bytes are compared
+         * with, and copied into, the off-heap byte arena directly.
+         */
+        public int intern(byte[] buffer, int offset, int length) {
+            int hash = hash(buffer, offset, length);
+            int mask = 2 * this.capacity - 1;
+            int slot = hash & mask;
+            while (true) {
+                int entry = this.slots.getInt(4 * slot);
+                if (entry == 0) {
+                    break;
+                }
+                if (this.matches(entry - 1, buffer, offset, length)) {
+                    return entry - 1;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (this.size == this.capacity) {
+                this.grow();
+                return this.intern(buffer, offset, length);
+            }
+            if (this.bytesUsed + length > this.bytes.capacity()) {
+                ByteBuffer oldBytes = this.bytes;
+                this.bytes = this.arena.allocate(Math.max(2L * oldBytes.capacity(), this.bytesUsed + length));
+                oldBytes.position(0).limit(this.bytesUsed);
+                this.bytes.put(oldBytes);
+                this.arena.release(oldBytes);
+            }
+            int id = this.size++;
+            this.bytes.position(this.bytesUsed);
+            this.bytes.put(buffer, offset, length);
+            this.names.putInt(8 * id, this.bytesUsed);
+            this.names.putInt(8 * id + 4, length);
+            this.bytesUsed += length;
+            this.slots.putInt(4 * slot, id + 1);
+            return id;
+        }
+
+        private boolean matches(int id, byte[] buffer, int offset, int length) {
+            int nameOffset = this.names.getInt(8 * id);
+            if (this.names.getInt(8 * id + 4) != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (this.bytes.get(nameOffset + i) != buffer[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Double the number of ids this dictionary can hold, rebuilding
+         * the hash table.
+         */
+        private void grow() {
+            ByteBuffer oldNames = this.names;
+            this.names = this.arena.allocate(2L * oldNames.capacity());
+            oldNames.position(0).limit(8 * this.size);
+            this.names.put(oldNames);
+            this.arena.release(oldNames);
+            this.arena.release(this.slots);
+            this.capacity *= 2;
+            this.slots = this.arena.allocate(4L * 2 * this.capacity);
+            int mask = 2 * this.capacity - 1;
+            for (int id = 0; id < this.size; id++) {
+                int slot = this.hashAt(id) & mask;
+                while (this.slots.getInt(4 * slot) != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                this.slots.putInt(4 * slot, id + 1);
+            }
+        }
+
+        private byte[] getBytes(int id) {
+            byte[] nameBytes = new byte[this.names.getInt(8 * id + 4)];
+            this.bytes.position(this.names.getInt(8 * id));
+            this.bytes.get(nameBytes);
+            return nameBytes;
+        }
+
+        public String getName(int id) {
+            return new String(this.getBytes(id), StandardCharsets.UTF_8);
+        }
+
+        public int size() {
+            return this.size;
+        }
+
+        private static int hash(byte[] buffer, int offset, int length) {
+            int hash = 0x811c9dc5;
+            for (int i = offset; i < offset + length; i++) {
+                hash = (hash ^ buffer[i]) * 0x01000193;
+            }
+            return hash ^ (hash >>> 16);
+        }
+
+        /**
+         * The same hash as hash(), of the name of id, read from the
+         * off-heap byte arena.
+         */
+        private int hashAt(int id) {
+            int offset = this.names.getInt(8 * id);
+            int length = this.names.getInt(8 * id + 4);
+            int hash = 0x811c9dc5;
+            for (int i = offset; i < offset + length; i++) {
+                hash = (hash ^ this.bytes.get(i)) * 0x01000193;
+            }
+            return hash ^ (hash >>> 16);
+        }
+    }
+
+    /**
+     * Return the total number of collections and the total collection
+     * time in milliseconds of all garbage collectors.
+     */
+    private static long[] getGcStats() {
+        long[] stats = new long[2];
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            stats[0] += Math.max(0, bean.getCollectionCount());
+            stats[1] += Math.max(0, bean.getCollectionTime());
+        }
+        return stats;
+    }
+
+    private static long getHeapUsedBytes() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Usage: OffHeapGraph [db file] [output directory] [off-heap budget in megabytes]
+     */
+    public static void main(String[] args) {
+        try {
+            String dbFilePath = (args.length > 0 ? args[0] : "/home/andy/programs/java/EECS 435 project/indirectDB.txt");
+            String outputDirectory = (args.length > 1 ? args[1] : "/home/andy/programs/java/EECS 435 project");
+            long budgetBytes = (args.length > 2 ? Long.parseLong(args[2]) : 1024L) * 1024 * 1024;
+            long[] gcBefore = getGcStats();
+            long startTime = System.currentTimeMillis();
+            OffHeapGraph g = new OffHeapGraph(dbFilePath, budgetBytes);
+            g.loadGraph();
+            System.out.println("Before pruning effect nodes: " + g.getNumberOfNodes() + " nodes and " + g.getNumberOfEdges() + " edges.");
+            g.pruneEffectNodes();
+            System.out.println("After pruning effect nodes: " + g.getNumberOfNodes() + " nodes and " + g.getNumberOfEdges() + " edges.");
+            long elapsed = System.currentTimeMillis() - startTime;
+            long[] gcAfter = getGcStats();
+            System.out.println("Build took " + elapsed + " milliseconds, with " + (gcAfter[0] - gcBefore[0]) + " garbage collections taking " + (gcAfter[1] - gcBefore[1]) + " milliseconds.");
+            System.out.println("On-heap: " + getHeapUsedBytes() / 1024 + " KB in use. Off-heap: " + g.getOffHeapBytes() / 1024 + " KB logically in use, " + g.arena.getPeakBytes() / 1024 + " KB logical peak, budget " + g.arena.getBudgetBytes() / 1024 + " KB; " + Arena.getDirectMemoryBytes() / 1024 + " KB of direct memory actually allocated.");
+            g.printGraphToFile(outputDirectory);
+        }
+        catch (Exception e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,418 @@
+import com.sun.net.httpserver.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.lang.Integer;
+import java.lang.Math;
+
+/**
+ * A small HTTP server that answers queries about a TrialGraph and the
+ * frequent pattern database, so that dashboards don't have to grep
+ * graph.txt. It only listens on the loopback interface. Every request
+ * runs on its own virtual thread when the JVM supports them (Java 21
+ * and later), and on a cached thread pool otherwise.
+ *
+ * Endpoints (all answers are JSON):
+ * - /neighbors?drug=X&limit=N - the drugs connected to X, strongest first
+ * - /edge?drug1=X&drug2=Y - the weight of the edge between X and Y
+ * - /top?k=N&order=positive|negative - the most positive or negative edges
+ * - /support?drugs=X!Y!... - the number of trials using all of the drugs
+ *
+ * Drug names are matched case-insensitively, and answers use the names
+ * as they appear in the graph or FP database.
+ */
+public class QueryServer {
+    private TrialGraph graph;
+    private VerticalIndex index;
+    private HttpServer server;
+    private ExecutorService executor;
+    /* Lookup structures for the graph's published snapshot; replaced when a new snapshot is published: */
+    private volatile QueryIndex queryIndex;
+    /* Held while the query index is rebuilt; a lock rather than a monitor, so that waiting virtual threads don't pin their carriers: */
+    private ReentrantLock queryIndexLock;
+    /* The FP database's drug names, keyed by their lower case names (null without an FP database): */
+    private HashMap<String, String> supportNames;
+
+    public QueryServer(TrialGraph graph, VerticalIndex index, int port) throws IOException {
+        this.graph = graph;
+        this.index = index;
+        this.queryIndexLock = new ReentrantLock();
+        if (index != null) {
+            this.supportNames = new HashMap<String, String>(index.getNumberOfDrugs() * 2);
+            for (String drug : index.getDrugs()) {
+                this.supportNames.put(drug.toLowerCase(), drug);
+            }
+        }
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+        this.executor = newRequestExecutor();
+        this.server.setExecutor(this.executor);
+        this.server.createContext("/neighbors", new Handler() {
+            String answer(Map<String, String> parameters) {
+                return QueryServer.this.neighbors(parameters);
+            }
+        });
+        this.server.createContext("/edge", new Handler() {
+            String answer(Map<String, String> parameters) {
+                return QueryServer.this.edge(parameters);
+            }
+        });
+        this.server.createContext("/top", new Handler() {
+            String answer(Map<String, String> parameters) {
+                return QueryServer.this.top(parameters);
+            }
+        });
+        this.server.createContext("/support", new Handler() {
+            String answer(Map<String, String> parameters) {
+                return QueryServer.this.support(parameters);
+            }
+        });
+    }
+
+    /**
+     * Return an executor that starts a virtual thread per task if this
+     * JVM has them. The method is looked up reflectively so that the
+     * server still compiles and runs on older JVMs.
+     */
+    private static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (Exception e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    public void start() {
+        this.server.start();
+    }
+
+    public void stop() {
+        this.server.stop(0);
+        this.executor.shutdown();
+    }
+
+    public int getPort() {
+        return this.server.getAddress().getPort();
+    }
+
+    /**
+     * Return the lookup structures for the currently published graph,
+     * building them first if a new graph has been published since they
+     * were last built. Only one thread builds them for each version;
+     * requests that arrive meanwhile wait for it rather than building
+     * their own copy.
+     */
+    private QueryIndex getQueryIndex() {
+        QueryIndex current = this.queryIndex;
+        if (current == null || current.version != this.graph.getSnapshot().getVersion()) {
+            current = this.buildQueryIndex();
+        }
+        return current;
+    }
+
+    private QueryIndex buildQueryIndex() {
+        this.queryIndexLock.lock();
+        try {
+            TrialGraph.GraphSnapshot snapshot = this.graph.getSnapshot();
+            QueryIndex current = this.queryIndex;
+            if (current == null || current.version != snapshot.getVersion()) {
+                current = new QueryIndex(snapshot);
+                this.queryIndex = current;
+            }
+            return current;
+        }
+        finally {
+            this.queryIndexLock.unlock();
+        }
+    }
+
+    private String neighbors(Map<String, String> parameters) {
+        String drug = required(parameters, "drug");
+        int limit = intParameter(parameters, "limit", 50);
+        QueryIndex queryIndex = this.getQueryIndex();
+        String name = queryIndex.getName(drug);
+        Neighbor[] neighbors = queryIndex.neighbors.get(drug.toLowerCase());
+        int count = Math.min(limit, neighbors.length);
+        StringBuilder builder = new StringBuilder(64 + count * 48);
+        builder.append("{\"drug\":").append(jsonString(name)).append(",\"degree\":").append(neighbors.length).append(",\"neighbors\":[");
+        for (int i = 0; i < count; i++) {
+            builder.append(i > 0 ? ",{\"drug\":" : "{\"drug\":").append(neighbors[i].jsonName).append(",\"weight\":").append(neighbors[i].weight).append('}');
+        }
+        return builder.append("]}").toString();
+    }
+
+    private String edge(Map<String, String> parameters) {
+        String drug1 = required(parameters, "drug1");
+        String drug2 = required(parameters, "drug2");
+        QueryIndex queryIndex = this.getQueryIndex();
+        TrialGraph.TrialEdge edge = queryIndex.snapshot.getEdge(new TrialGraph.TrialNode(queryIndex.getName(drug1)), new TrialGraph.TrialNode(queryIndex.getName(drug2)));
+        if (edge == null) {
+            throw new NoSuchElementException("There is no edge between " + drug1 + " and " + drug2 + ".");
+        }
+        return this.appendEdge(new StringBuilder(128), edge).toString();
+    }
+
+    private String top(Map<String, String> parameters) {
+        int k = intParameter(parameters, "k", 50);
+        String order = parameters.containsKey("order") ? parameters.get("order") : "positive";
+        boolean positive;
+        if (order.equals("positive")) {
+            positive = true;
+        }
+        else if (order.equals("negative")) {
+            positive = false;
+        }
+        else {
+            throw new IllegalArgumentException("order must be positive or negative.");
+        }
+        TrialGraph.TrialEdge[] sortedEdges = this.getQueryIndex().sortedEdges;
+        int count = Math.min(k, sortedEdges.length);
+        StringBuilder builder = new StringBuilder(32 + count * 96);
+        builder.append("{\"edges\":[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            this.appendEdge(builder, sortedEdges[positive ? sortedEdges.length - 1 - i : i]);
+        }
+        return builder.append("]}").toString();
+    }
+
+    private String support(Map<String, String> parameters) {
+        if (this.index == null) {
+            throw new IllegalStateException("No frequent pattern database was loaded.");
+        }
+        String[] drugs = required(parameters, "drugs").split("!");
+        for (int i = 0; i < drugs.length; i++) {
+            String name = this.supportNames.get(drugs[i].toLowerCase());
+            if (name == null) {
+                throw new NoSuchElementException("Unknown drug " + drugs[i] + ".");
+            }
+            drugs[i] = name;
+        }
+        StringBuilder builder = new StringBuilder(64 + drugs.length * 32);
+        builder.append("{\"drugs\":[");
+        for (int i = 0; i < drugs.length; i++) {
+            builder.append(i > 0 ? "," : "").append(jsonString(drugs[i]));
+        }
+        builder.append("],\"support\":").append(this.index.getSupport(drugs)).append(",\"trials\":").append(this.index.getNumberOfTrials()).append('}');
+        return builder.toString();
+    }
+
+    private StringBuilder appendEdge(StringBuilder builder, TrialGraph.TrialEdge edge) {
+        builder.append("{\"drug1\":").append(jsonString(edge.node1.getContents()));
+        builder.append(",\"drug2\":").append(jsonString(edge.node2.getContents()));
+        return builder.append(",\"weight\":").append(edge.weight).append('}');
+    }
+
+    private static String required(Map<String, String> parameters, String name) {
+        String value = parameters.get(name);
+        if (value == null || value.length() == 0) {
+            throw new IllegalArgumentException("Missing parameter " + name + ".");
+        }
+        return value;
+    }
+
+    private static int intParameter(Map<String, String> parameters, String name, int defaultValue) {
+        String value = parameters.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        int parsed = Integer.parseInt(value);
+        if (parsed < 0) {
+            throw new IllegalArgumentException(name + " must not be negative.");
+        }
+        return parsed;
+    }
+
+    /**
+     * Quote and escape a string for use in a JSON document.
+     */
+    public static String jsonString(String s) {
+        StringBuilder builder = new StringBuilder(s.length() + 2);
+        builder.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            }
+            else if (c < 0x20) {
+                builder.append(String.format("\\u%04x", (int)c));
+            }
+            else {
+                builder.append(c);
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+    /**
+     * Common request handling: parse the query string, compute the
+     * answer and send it, turning exceptions into JSON error responses
+     * (400 for bad parameters, 404 for unknown drugs or edges).
+     */
+    private abstract static class Handler implements HttpHandler {
+        abstract String answer(Map<String, String> parameters);
+
+        public void handle(HttpExchange exchange) throws IOException {
+            int status = 200;
+            String body;
+            try {
+                body = this.answer(parseQuery(exchange.getRequestURI().getRawQuery()));
+            }
+            catch (NoSuchElementException e) {
+                status = 404;
+                body = "{\"error\":" + jsonString(e.getMessage()) + "}";
+            }
+            catch (IllegalArgumentException e) {
+                status = 400;
+                body = "{\"error\":" + jsonString(String.valueOf(e.getMessage())) + "}";
+            }
+            catch (Exception e) {
+                status = 500;
+                body = "{\"error\":" + jsonString(String.valueOf(e.getMessage())) + "}";
+            }
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(status, bytes.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(bytes);
+            out.close();
+        }
+
+        private static Map<String, String> parseQuery(String query) {
+            HashMap<String, String> parameters = new HashMap<String, String>(8);
+            if (query == null) {
+                return parameters;
+            }
+            int start = 0;
+            while (start < query.length()) {
+                int end = query.indexOf('&', start);
+                if (end < 0) {
+                    end = query.length();
+                }
+                int equals = query.indexOf('=', start);
+                if (equals > start && equals < end) {
+                    parameters.put(URLDecoder.decode(query.substring(start, equals), StandardCharsets.UTF_8), URLDecoder.decode(query.substring(equals + 1, end), StandardCharsets.UTF_8));
+                }
+                start = end + 1;
+            }
+            return parameters;
+        }
+    }
+
+    /**
+     * Lookup structures built once per published snapshot: every
+     * drug's name as it appears in the graph, every drug's neighbors
+     * sorted by weight, strongest first, and all edges sorted by
+     * weight. Drugs are looked up case-insensitively, by their lower
+     * case names. Drug names are escaped for JSON up front so that
+     * requests only copy them.
+     */
+    private static class QueryIndex {
+        private TrialGraph.GraphSnapshot snapshot;
+        private long version;
+        private HashMap<String, String> names;
+        private HashMap<String, Neighbor[]> neighbors;
+        private TrialGraph.TrialEdge[] sortedEdges;
+
+        private QueryIndex(TrialGraph.GraphSnapshot snapshot) {
+            this.snapshot = snapshot;
+            this.version = snapshot.getVersion();
+            HashMap<String, ArrayList<Neighbor>> lists = new HashMap<String, ArrayList<Neighbor>>();
+            HashMap<String, String> jsonNames = new HashMap<String, String>();
+            for (TrialGraph.TrialEdge e : snapshot.getEdges().values()) {
+                String name1 = e.node1.getContents();
+                String name2 = e.node2.getContents();
+                addNeighbor(lists, jsonNames, name1, name2, e.weight);
+                addNeighbor(lists, jsonNames, name2, name1, e.weight);
+            }
+            this.names = new HashMap<String, String>(jsonNames.size() * 2);
+            for (String name : jsonNames.keySet()) {
+                this.names.put(name.toLowerCase(), name);
+            }
+            this.neighbors = new HashMap<String, Neighbor[]>(lists.size() * 2);
+            for (Map.Entry<String, ArrayList<Neighbor>> entry : lists.entrySet()) {
+                Neighbor[] array = entry.getValue().toArray(new Neighbor[entry.getValue().size()]);
+                Arrays.sort(array);
+                this.neighbors.put(entry.getKey(), array);
+            }
+            this.sortedEdges = snapshot.getEdges().values().toArray(new TrialGraph.TrialEdge[snapshot.getNumberOfEdges()]);
+            Arrays.sort(this.sortedEdges, new TrialGraph.EdgeWeightComparator());
+        }
+
+        /**
+         * Return the name of a drug as it appears in the graph, given
+         * its name in any case.
+         */
+        private String getName(String drug) {
+            String name = this.names.get(drug.toLowerCase());
+            if (name == null) {
+                throw new NoSuchElementException("Unknown drug " + drug + ".");
+            }
+            return name;
+        }
+
+        private static void addNeighbor(HashMap<String, ArrayList<Neighbor>> lists, HashMap<String, String> jsonNames, String name, String neighborName, double weight) {
+            String key = name.toLowerCase();
+            ArrayList<Neighbor> list = lists.get(key);
+            if (list == null) {
+                list = new ArrayList<Neighbor>();
+                lists.put(key, list);
+            }
+            String jsonName = jsonNames.get(neighborName);
+            if (jsonName == null) {
+                jsonName = jsonString(neighborName);
+                jsonNames.put(neighborName, jsonName);
+            }
+            list.add(new Neighbor(jsonName, weight));
+        }
+    }
+
+    /**
+     * One entry of a drug's neighbor list. Neighbors are sorted by the
+     * strength of the connection (absolute weight), strongest first.
+     */
+    private static class Neighbor implements Comparable<Neighbor> {
+        private String jsonName;
+        private double weight;
+
+        private Neighbor(String jsonName, double weight) {
+            this.jsonName = jsonName;
+            this.weight = weight;
+        }
+
+        @Override
+        public int compareTo(Neighbor neighbor) {
+            return Double.compare(Math.abs(neighbor.weight), Math.abs(this.weight));
+        }
+    }
+
+    /**
+     * Usage: QueryServer [db file] [FP database directory] [port]
+     */
+    public static void main(String[] args) {
+        try {
+            String dbFilePath = (args.length > 0 ? args[0] : "/home/andy/programs/java/EECS 435 project/indirectDB.txt");
+            String fpDirectory = (args.length > 1 ? args[1] : "/home/andy/programs/java/EECS 435 project/");
+            int port = (args.length > 2 ? Integer.parseInt(args[2]) : 8435);
+            TrialGraph g = new TrialGraph(dbFilePath);
+            g.rebuild();
+            VerticalIndex index = null;
+            if (new File(fpDirectory + "/FPDB.txt").exists()) {
+                index = VerticalIndex.open(fpDirectory);
+            }
+            QueryServer server = new QueryServer(g, index, port);
+            server.getQueryIndex();
+            server.start();
+            System.out.println("Serving " + g.getNumberOfNodes() + " drugs and " + g.getNumberOfEdges() + " edges on http://localhost:" + server.getPort() + "/");
+        }
+        catch (Exception e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+import java.util.*;
+import java.io.*;
+import java.lang.Integer;
+import java.lang.Math;
+
+/**
+ * Builds the drug graph with several local processes. Trials are split
+ * into shards by the hash of their NCT id; each shard is read by its
+ * own JVM, which writes a partial aggregate of its drug-effect edges
+ * (see TrialGraph.writePartialAggregate()). The processes only
+ * communicate through those files. Once every shard has finished, the
+ * partial aggregates are merged into one graph and its effect nodes are
+ * pruned, which gives the same graph as a single-process build.
+ *
+ * Usage:
+ * ShardedGraphBuild build dataDirectory targetDirectory numShards [--verify]
+ * ShardedGraphBuild shard dataDirectory targetDirectory shard numShards
+ *
+ * The build command starts one shard process per shard and then merges
+ * their output; with --verify it also builds the graph from
+ * targetDirectory/indirectDB.txt in one process and compares the two.
+ * The shard command is what each shard process runs.
+ */
+public class ShardedGraphBuild {
+    private String dataDirectory;
+    private String targetDirectory;
+    private int numShards;
+
+    public ShardedGraphBuild(String dataDirectory, String targetDirectory, int numShards) {
+        this.dataDirectory = dataDirectory;
+        this.targetDirectory = targetDirectory;
+        this.numShards = numShards;
+    }
+
+    /**
+     * The partial aggregate written by a shard. It is written under a
+     * temporary name and renamed when complete, so its existence means
+     * that the shard succeeded.
+     */
+    public File getPartialFile(int shard) {
+        return new File(this.targetDirectory + "/partial" + shard + ".txt");
+    }
+
+    /**
+     * Build one shard: extract its trials' lines from the XML files,
+     * load them into a graph, and write the graph's partial aggregate.
+     * Any failure is thrown rather than printed, so the shard process
+     * exits with a non-zero code and never renames a partial aggregate
+     * into place.
+     */
+    public void buildShard(int shard) throws IOException {
+        TrialReader reader = new TrialReader();
+        reader.generateIndirectDatabaseShard(this.dataDirectory, this.targetDirectory, shard, this.numShards);
+        TrialGraph g = new TrialGraph(this.targetDirectory + "/indirectDB.shard" + shard + ".txt");
+        g.loadGraph();
+        File partialFile = this.getPartialFile(shard);
+        File temporaryFile = new File(partialFile.getPath() + ".tmp");
+        g.writePartialAggregate(temporaryFile);
+        if (!(temporaryFile.renameTo(partialFile))) {
+            throw new IOException("Could not rename " + temporaryFile + " to " + partialFile + ".");
+        }
+    }
+
+    /**
+     * Start one process per shard, running this class's shard command
+     * on the same JVM and class path, and wait for all of them. Throws
+     * an exception if any shard fails.
+     */
+    public void runShardProcesses() throws IOException, InterruptedException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        String classPath = System.getProperty("java.class.path");
+        ArrayList<Process> processes = new ArrayList<Process>(this.numShards);
+        for (int shard = 0; shard < this.numShards; shard++) {
+            this.getPartialFile(shard).delete();
+            ProcessBuilder builder = new ProcessBuilder(java, "-cp", classPath, "ShardedGraphBuild", "shard", this.dataDirectory, this.targetDirectory, String.valueOf(shard), String.valueOf(this.numShards));
+            builder.redirectErrorStream(true);
+            builder.redirectOutput(new File(this.targetDirectory + "/shard" + shard + ".log"));
+            processes.add(builder.start());
+        }
+        for (int shard = 0; shard < this.numShards; shard++) {
+            int exitCode = processes.get(shard).waitFor();
+            if (exitCode != 0 || !(this.getPartialFile(shard).exists())) {
+                throw new IOException("Shard " + shard + " failed with exit code " + exitCode + "; see shard" + shard + ".log.");
+            }
+        }
+    }
+
+    /**
+     * Merge the shards' partial aggregates and prune the merged graph.
+     */
+    public TrialGraph merge() throws IOException {
+        ArrayList<File> partialFiles = new ArrayList<File>(this.numShards);
+        for (int shard = 0; shard < this.numShards; shard++) {
+            partialFiles.add(this.getPartialFile(shard));
+        }
+        TrialGraph g = new TrialGraph(this.targetDirectory + "/indirectDB.txt");
+        g.mergePartialAggregates(partialFiles);
+        System.out.println("Merged " + this.numShards + " shards: " + g.getNumberOfNodes() + " nodes and " + g.getNumberOfEdges() + " edges.");
+        g.pruneEffectNodes();
+        return g;
+    }
+
+    /**
+     * Return true if two graphs have the same edges with the same
+     * weights.
+     */
+    public static boolean sameEdges(TrialGraph g1, TrialGraph g2) {
+        Map<TrialGraph.TrialEdge, TrialGraph.TrialEdge> edges1 = g1.getEdges();
+        Map<TrialGraph.TrialEdge, TrialGraph.TrialEdge> edges2 = g2.getEdges();
+        if (edges1.size() != edges2.size()) {
+            return false;
+        }
+        for (TrialGraph.TrialEdge e : edges1.values()) {
+            TrialGraph.TrialEdge other = edges2.get(e);
+            if (other == null || other.weight != e.weight) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static void main(String[] args) {
+        try {
+            if (args.length >= 5 && args[0].equals("shard")) {
+                ShardedGraphBuild build = new ShardedGraphBuild(args[1], args[2], Integer.parseInt(args[4]));
+                build.buildShard(Integer.parseInt(args[3]));
+            }
+            else if (args.length >= 4 && args[0].equals("build")) {
+                ShardedGraphBuild build = new ShardedGraphBuild(args[1], args[2], Integer.parseInt(args[3]));
+                long startTime = System.currentTimeMillis();
+                build.runShardProcesses();
+                System.out.println("Shard processes took " + (System.currentTimeMillis() - startTime) + " milliseconds.");
+                startTime = System.currentTimeMillis();
+                TrialGraph g = build.merge();
+                System.out.println("Merging and pruning took " + (System.currentTimeMillis() - startTime) + " milliseconds: " + g.getNumberOfNodes() + " nodes and " + g.getNumberOfEdges() + " edges.");
+                g.printGraphToFile(args[2]);
+                if (args.length > 4 && args[4].equals("--verify")) {
+                    TrialGraph single = new TrialGraph(args[2] + "/indirectDB.txt");
+                    single.rebuild();
+                    System.out.println("Sharded build " + (sameEdges(g, single) ? "matches" : "DOES NOT match") + " the single-process build.");
+                }
+            }
+            else {
+                System.out.println("Usage: ShardedGraphBuild build dataDirectory targetDirectory numShards [--verify]");
+                System.out.println("       ShardedGraphBuild shard dataDirectory targetDirectory shard numShards");
+                System.exit(1);
+            }
+        }
+        catch (Exception e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
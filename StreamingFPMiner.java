@@ -0,0 +1,545 @@
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.io.*;
+import java.lang.Integer;
+import java.lang.Math;
+
+/**
+ * A streaming alternative to FPMiner for quick exploratory runs. The
+ * FP database is read exactly once, and all counting is done in a
+ * fixed amount of memory: Count-Min sketches estimate the support of
+ * every drug and every drug pair, and a Space-Saving summary keeps
+ * track of the pairs that are most likely to be frequent. Supports are
+ * not exact, so every reported 2-pattern comes with bounds on its true
+ * support.
+ */
+public class StreamingFPMiner {
+    public int minSupport = 50;
+    public String directory;
+    /* Count-Min sketch dimensions; the error is at most e / width times the stream length, with probability 1 - e^-depth: */
+    private int sketchWidth;
+    private int sketchDepth;
+    /* The number of candidate pairs the Space-Saving summary can keep track of: */
+    private int heavyHitterCapacity;
+    private CountMinSketch itemSketch;
+    private CountMinSketch pairSketch;
+    private SpaceSaving pairSummary;
+    /* The number of trials (lines) and of pair occurrences seen so far: */
+    private long numTrials;
+    private long numPairs;
+    /* The sorted, distinct drugs of the current trial, as slices of the tokenizer's buffer: */
+    private int[] itemStarts;
+    private int[] itemLengths;
+
+    public StreamingFPMiner(String directory) {
+        this(directory, 1 << 16, 5, 10000);
+    }
+
+    public StreamingFPMiner(String directory, int sketchWidth, int sketchDepth, int heavyHitterCapacity) {
+        this.directory = directory;
+        this.sketchWidth = sketchWidth;
+        this.sketchDepth = sketchDepth;
+        this.heavyHitterCapacity = heavyHitterCapacity;
+        this.itemSketch = new CountMinSketch(sketchWidth, sketchDepth);
+        this.pairSketch = new CountMinSketch(sketchWidth, sketchDepth);
+        this.pairSummary = new SpaceSaving(heavyHitterCapacity);
+        this.itemStarts = new int[64];
+        this.itemLengths = new int[64];
+    }
+
+    /**
+     * Make a single pass over FPDB.txt and print every 2-pattern whose
+     * estimated support reaches minSupport, along with bounds on its
+     * true support.
+     */
+    public void mineFrequentPatterns() {
+        try {
+            ByteTokenizer tokenizer = new ByteTokenizer(new FileInputStream(new File(directory + "/FPDB.txt")));
+            while (tokenizer.nextLine()) {
+                this.addTrial(tokenizer);
+            }
+            tokenizer.close();
+            ArrayList<Pattern> patterns = this.getFrequentTwoPatterns();
+            System.out.println("Read " + this.numTrials + " trials and " + this.numPairs + " drug pairs in one pass.");
+            System.out.println("Sketches use " + (this.itemSketch.getMemoryBytes() + this.pairSketch.getMemoryBytes()) + " bytes; Count-Min error is at most " + this.getPairErrorBound() + " with probability " + this.getConfidence() + ".");
+            System.out.println("Space-Saving keeps every pair with support above " + this.getEvictionBound() + " (" + this.numPairs + " pair occurrences / " + this.heavyHitterCapacity + " counters).");
+            if (this.getEvictionBound() >= this.minSupport) {
+                System.out.println("WARNING: that bound is not below the minimum support of " + this.minSupport + ", so frequent pairs may have been evicted and be missing; increase the heavy hitter capacity.");
+            }
+            for (Pattern p : patterns) {
+                System.out.println(p);
+            }
+        }
+        catch (Exception e) {
+            System.out.println(e.getMessage());
+			e.printStackTrace();
+        }
+    }
+
+    /**
+     * Count the drugs of a single trial (the current line of a
+     * tokenizer reading FPDB.txt) and all of the pairs they form. Drugs
+     * repeated within a trial are only counted once. The drugs are
+     * hashed straight from the tokenizer's buffer; a pair's key is
+     * "drug1!drug2" with the drugs in order of their UTF-8 bytes, and
+     * its bytes are only copied when the Space-Saving summary admits
+     * the pair as a new key.
+     */
+    public void addTrial(ByteTokenizer tokenizer) {
+        int numFields = tokenizer.split((byte)'!', (byte)'!');
+        byte[] buffer = tokenizer.getBuffer();
+        if (numFields > this.itemStarts.length) {
+            this.itemStarts = new int[2 * numFields];
+            this.itemLengths = new int[2 * numFields];
+        }
+        /* Insertion sort of the non-empty fields, dropping duplicates: */
+        int numItems = 0;
+        for (int i = 0; i < numFields; i++) {
+            int start = tokenizer.getFieldStart(i);
+            int length = tokenizer.getFieldLength(i);
+            if (length == 0) {
+                continue;
+            }
+            int position = numItems;
+            int comparison = 1;
+            while (position > 0 && (comparison = compare(buffer, this.itemStarts[position - 1], this.itemLengths[position - 1], buffer, start, length)) > 0) {
+                position--;
+            }
+            if (position > 0 && comparison == 0) {
+                continue;
+            }
+            System.arraycopy(this.itemStarts, position, this.itemStarts, position + 1, numItems - position);
+            System.arraycopy(this.itemLengths, position, this.itemLengths, position + 1, numItems - position);
+            this.itemStarts[position] = start;
+            this.itemLengths[position] = length;
+            numItems++;
+        }
+        for (int i = 0; i < numItems; i++) {
+            this.itemSketch.add(buffer, this.itemStarts[i], this.itemLengths[i], 0, -1);
+            for (int j = i + 1; j < numItems; j++) {
+                this.pairSketch.add(buffer, this.itemStarts[i], this.itemLengths[i], this.itemStarts[j], this.itemLengths[j]);
+                this.pairSummary.add(buffer, this.itemStarts[i], this.itemLengths[i], this.itemStarts[j], this.itemLengths[j]);
+                this.numPairs++;
+            }
+        }
+        this.numTrials++;
+    }
+
+    /**
+     * Compare two byte strings as unsigned bytes, like String.compareTo()
+     * but for UTF-8.
+     */
+    private static int compare(byte[] buffer1, int start1, int length1, byte[] buffer2, int start2, int length2) {
+        int length = Math.min(length1, length2);
+        for (int i = 0; i < length; i++) {
+            int comparison = Integer.compare(buffer1[start1 + i] & 0xff, buffer2[start2 + i] & 0xff);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return Integer.compare(length1, length2);
+    }
+
+    /**
+     * Hash one byte string, or two joined by '!' if length2 is not
+     * negative, starting from the given seed: FNV-1a followed by the
+     * MurmurHash3 finalizer. Hashing the two drugs of a pair this way
+     * gives the same hash as hashing the bytes of "drug1!drug2".
+     */
+    private static int hash(byte[] buffer, int start1, int length1, int start2, int length2, int seed) {
+        int h = 0x811c9dc5 ^ seed;
+        for (int i = start1; i < start1 + length1; i++) {
+            h = (h ^ (buffer[i] & 0xff)) * 0x01000193;
+        }
+        if (length2 >= 0) {
+            h = (h ^ '!') * 0x01000193;
+            for (int i = start2; i < start2 + length2; i++) {
+                h = (h ^ (buffer[i] & 0xff)) * 0x01000193;
+            }
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * Return the pairs tracked by the Space-Saving summary whose
+     * estimated support is at least minSupport, most frequent first.
+     * The estimate is the smaller of the two upper bounds provided by
+     * the Count-Min sketch and the Space-Saving summary; the lower
+     * bound comes from the Space-Saving summary.
+     */
+    public ArrayList<Pattern> getFrequentTwoPatterns() {
+        ArrayList<Pattern> patterns = new ArrayList<Pattern>();
+        for (int i = 0; i < this.pairSummary.size(); i++) {
+            String pair = this.pairSummary.getKey(i);
+            long upperBound = Math.min(this.pairSummary.getCount(i), this.pairSketch.estimate(pair));
+            long lowerBound = this.pairSummary.getCount(i) - this.pairSummary.getError(i);
+            if (upperBound >= this.minSupport) {
+                int separator = pair.indexOf('!');
+                patterns.add(new Pattern(pair.substring(0, separator), pair.substring(separator + 1), upperBound, lowerBound));
+            }
+        }
+        Collections.sort(patterns);
+        return patterns;
+    }
+
+    /**
+     * Estimated support of a single drug; never lower than the true
+     * support.
+     */
+    public long estimateSupport(String drug) {
+        return this.itemSketch.estimate(drug);
+    }
+
+    /**
+     * Estimated support of a pair of drugs; never lower than the true
+     * support.
+     */
+    public long estimateSupport(String drug1, String drug2) {
+        byte[] bytes1 = drug1.getBytes(StandardCharsets.UTF_8);
+        byte[] bytes2 = drug2.getBytes(StandardCharsets.UTF_8);
+        String pair = (compare(bytes1, 0, bytes1.length, bytes2, 0, bytes2.length) <= 0 ? drug1 + "!" + drug2 : drug2 + "!" + drug1);
+        return this.pairSketch.estimate(pair);
+    }
+
+    /**
+     * The amount by which a pair support estimate may exceed the true
+     * support, with probability getConfidence().
+     */
+    public long getPairErrorBound() {
+        return (long)Math.ceil(Math.E / this.sketchWidth * this.numPairs);
+    }
+
+    /**
+     * Every pair whose true support is above this bound is guaranteed
+     * to be in the Space-Saving summary (the smallest count in a full
+     * summary is at most numPairs / capacity). Pairs at or below it may
+     * have been evicted.
+     */
+    public long getEvictionBound() {
+        return this.numPairs / this.heavyHitterCapacity;
+    }
+
+    public double getConfidence() {
+        return 1.0 - Math.exp(-this.sketchDepth);
+    }
+
+    /**
+     * A frequent 2-pattern along with bounds on its support.
+     */
+    public static class Pattern implements Comparable<Pattern> {
+        public String drug1;
+        public String drug2;
+        public long estimatedSupport;
+        public long minimumSupport;
+
+        public Pattern(String drug1, String drug2, long estimatedSupport, long minimumSupport) {
+            this.drug1 = drug1;
+            this.drug2 = drug2;
+            this.estimatedSupport = estimatedSupport;
+            this.minimumSupport = Math.max(0, minimumSupport);
+        }
+
+        /**
+         * Patterns are sorted by estimated support, highest first.
+         */
+        @Override
+        public int compareTo(Pattern pattern) {
+            return Long.compare(pattern.estimatedSupport, this.estimatedSupport);
+        }
+
+        @Override
+        public String toString() {
+            return this.drug1 + ", " + this.drug2 + " (support " + this.minimumSupport + " to " + this.estimatedSupport + ")";
+        }
+    }
+
+    /**
+     * A Count-Min sketch: depth rows of width counters, each row
+     * indexed by a different hash of the key. The estimate for a key is
+     * the smallest of its counters, so it can only overestimate.
+     */
+    public static class CountMinSketch {
+        private int width;
+        private int depth;
+        private long[] counters;
+        private int[] seeds;
+
+        public CountMinSketch(int width, int depth) {
+            this.width = width;
+            this.depth = depth;
+            this.counters = new long[width * depth];
+            this.seeds = new int[depth];
+            Random random = new Random(435L);
+            for (int i = 0; i < depth; i++) {
+                this.seeds[i] = random.nextInt() | 1;
+            }
+        }
+
+        /**
+         * Count one occurrence of a byte string, or of two joined by
+         * '!' if length2 is not negative (see hash()).
+         */
+        public void add(byte[] buffer, int start1, int length1, int start2, int length2) {
+            for (int i = 0; i < this.depth; i++) {
+                this.counters[i * this.width + this.index(hash(buffer, start1, length1, start2, length2, this.seeds[i]))]++;
+            }
+        }
+
+        public void add(String key) {
+            byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+            this.add(bytes, 0, bytes.length, 0, -1);
+        }
+
+        public long estimate(String key) {
+            byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+            long estimate = Long.MAX_VALUE;
+            for (int i = 0; i < this.depth; i++) {
+                estimate = Math.min(estimate, this.counters[i * this.width + this.index(hash(bytes, 0, bytes.length, 0, -1, this.seeds[i]))]);
+            }
+            return estimate;
+        }
+
+        public long getMemoryBytes() {
+            return 8L * this.counters.length;
+        }
+
+        /**
+         * Every row hashes the key's bytes with its own seed, so that
+         * keys which collide in one row are unlikely to collide in
+         * another.
+         */
+        private int index(int hash) {
+            return (hash & 0x7fffffff) % this.width;
+        }
+    }
+
+    /**
+     * The Space-Saving heavy hitters summary. It keeps at most capacity
+     * keys with a count and an error each. When a new key arrives and
+     * the summary is full, the key with the smallest count is replaced,
+     * and the new key inherits that count as its error. A key's true
+     * count is between count - error and count. The keys are kept in a
+     * binary min-heap on count, so every update is O(log capacity).
+     *
+     * Keys are UTF-8 byte strings. They are found through an
+     * open-addressing table of heap positions, which can be probed with
+     * a slice of any byte array (see hash()), so counting a key that is
+     * already tracked allocates nothing.
+     */
+    public static class SpaceSaving {
+        private int capacity;
+        private int size;
+        /* The heap, by position: */
+        private byte[][] keys;
+        private int[] hashes;
+        private long[] counts;
+        private long[] errors;
+        /* The slot of the lookup table that holds each position: */
+        private int[] tableSlots;
+        /* The lookup table; each slot holds a heap position + 1, or 0 if empty: */
+        private int[] table;
+        private int mask;
+
+        public SpaceSaving(int capacity) {
+            this.capacity = capacity;
+            this.size = 0;
+            this.keys = new byte[capacity][];
+            this.hashes = new int[capacity];
+            this.counts = new long[capacity];
+            this.errors = new long[capacity];
+            this.tableSlots = new int[capacity];
+            this.table = new int[Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) << 1];
+            this.mask = this.table.length - 1;
+        }
+
+        public void add(String key) {
+            byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+            this.add(bytes, 0, bytes.length, 0, -1);
+        }
+
+        /**
+         * Count one occurrence of a byte string, or of two joined by
+         * '!' if length2 is not negative. The key's bytes are only
+         * copied if it is not already tracked.
+         */
+        public void add(byte[] buffer, int start1, int length1, int start2, int length2) {
+            int hash = hash(buffer, start1, length1, start2, length2, 0);
+            int slot = this.find(hash, buffer, start1, length1, start2, length2);
+            if (this.table[slot] != 0) {
+                int position = this.table[slot] - 1;
+                this.counts[position]++;
+                this.siftDown(position);
+            }
+            else if (this.size < this.capacity) {
+                int position = this.size;
+                this.keys[position] = copy(buffer, start1, length1, start2, length2);
+                this.hashes[position] = hash;
+                this.counts[position] = 1;
+                this.errors[position] = 0;
+                this.table[slot] = position + 1;
+                this.tableSlots[position] = slot;
+                this.siftUp(position);
+                this.size++;
+            }
+            else {
+                this.remove(this.tableSlots[0]);
+                slot = this.find(hash, buffer, start1, length1, start2, length2);
+                this.keys[0] = copy(buffer, start1, length1, start2, length2);
+                this.hashes[0] = hash;
+                this.errors[0] = this.counts[0];
+                this.counts[0]++;
+                this.table[slot] = 1;
+                this.tableSlots[0] = slot;
+                this.siftDown(0);
+            }
+        }
+
+        public int size() {
+            return this.size;
+        }
+
+        public String getKey(int i) {
+            return new String(this.keys[i], StandardCharsets.UTF_8);
+        }
+
+        public long getCount(int i) {
+            return this.counts[i];
+        }
+
+        public long getError(int i) {
+            return this.errors[i];
+        }
+
+        /**
+         * Return the table slot holding the key, or the empty slot
+         * where it would go.
+         */
+        private int find(int hash, byte[] buffer, int start1, int length1, int start2, int length2) {
+            int slot = hash & this.mask;
+            while (this.table[slot] != 0) {
+                int position = this.table[slot] - 1;
+                if (this.hashes[position] == hash && matches(this.keys[position], buffer, start1, length1, start2, length2)) {
+                    return slot;
+                }
+                slot = (slot + 1) & this.mask;
+            }
+            return slot;
+        }
+
+        /**
+         * Empty a table slot, moving later entries of its probe run
+         * back so that every key can still be found.
+         */
+        private void remove(int slot) {
+            this.table[slot] = 0;
+            int next = slot;
+            while (true) {
+                next = (next + 1) & this.mask;
+                if (this.table[next] == 0) {
+                    return;
+                }
+                int position = this.table[next] - 1;
+                int home = this.hashes[position] & this.mask;
+                /* The entry can move to the empty slot unless its home is cyclically after that slot: */
+                if (((next - home) & this.mask) >= ((next - slot) & this.mask)) {
+                    this.table[slot] = this.table[next];
+                    this.tableSlots[position] = slot;
+                    this.table[next] = 0;
+                    slot = next;
+                }
+            }
+        }
+
+        private static boolean matches(byte[] key, byte[] buffer, int start1, int length1, int start2, int length2) {
+            if (key.length != (length2 < 0 ? length1 : length1 + 1 + length2)) {
+                return false;
+            }
+            for (int i = 0; i < length1; i++) {
+                if (key[i] != buffer[start1 + i]) {
+                    return false;
+                }
+            }
+            if (length2 >= 0) {
+                if (key[length1] != '!') {
+                    return false;
+                }
+                for (int i = 0; i < length2; i++) {
+                    if (key[length1 + 1 + i] != buffer[start2 + i]) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        private static byte[] copy(byte[] buffer, int start1, int length1, int start2, int length2) {
+            byte[] key = new byte[length2 < 0 ? length1 : length1 + 1 + length2];
+            System.arraycopy(buffer, start1, key, 0, length1);
+            if (length2 >= 0) {
+                key[length1] = '!';
+                System.arraycopy(buffer, start2, key, length1 + 1, length2);
+            }
+            return key;
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (this.counts[parent] <= this.counts[i]) {
+                    break;
+                }
+                this.swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int smallest = i;
+                int left = 2 * i + 1;
+                int right = left + 1;
+                if (left < this.size && this.counts[left] < this.counts[smallest]) {
+                    smallest = left;
+                }
+                if (right < this.size && this.counts[right] < this.counts[smallest]) {
+                    smallest = right;
+                }
+                if (smallest == i) {
+                    break;
+                }
+                this.swap(i, smallest);
+                i = smallest;
+            }
+        }
+
+        private void swap(int i, int j) {
+            byte[] key = this.keys[i];
+            int hash = this.hashes[i];
+            long count = this.counts[i];
+            long error = this.errors[i];
+            int tableSlot = this.tableSlots[i];
+            this.keys[i] = this.keys[j];
+            this.hashes[i] = this.hashes[j];
+            this.counts[i] = this.counts[j];
+            this.errors[i] = this.errors[j];
+            this.tableSlots[i] = this.tableSlots[j];
+            this.keys[j] = key;
+            this.hashes[j] = hash;
+            this.counts[j] = count;
+            this.errors[j] = error;
+            this.tableSlots[j] = tableSlot;
+            this.table[this.tableSlots[i]] = i + 1;
+            this.table[this.tableSlots[j]] = j + 1;
+        }
+    }
+
+    public static void main(String[] args) {
+        StreamingFPMiner miner = new StreamingFPMiner(args.length > 0 ? args[0] : "/home/andy/programs/java/EECS 435 project/");
+        miner.mineFrequentPatterns();
+    }
+}
@@ -5,27 +5,82 @@ import javax.xml.transform.stream.*;
 import org.xml.sax.*;
 import org.w3c.dom.*;
 import java.util.*;
+import java.util.concurrent.atomic.*;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.lang.Integer;
 import java.lang.Math;
 
 public class TrialGraph {
     /* The path to the text file containing the information that will be used to build the graph: */
 	private String dbFilePath;
-    /* Variable to store the nodes of this graph: */
+    /* The nodes of the graph being built. Only touched by the thread running a build; readers use the published snapshot: */
 	private HashMap<TrialNode, TrialNode> nodes;
-    /* Variable to store the edges of this graph: */
+    /* The edges of the graph being built (same rules as nodes): */
     private HashMap<TrialEdge, TrialEdge> edges;
+    /* The most recently finished graph. Readers on any thread get a consistent graph from it without locking: */
+    private AtomicReference<GraphSnapshot> published;
     /* Strings used in the dbFilePath text file and elsewhere to identify nodes as a drug name, an adverse event name, or a condition name: */
 	public static String drugIdentifierString = "d";
 	public static String conditionIdentifierString = "c";
     public static String eventIdentifierString = "e";
+    /* Drug-effect edges keep a counter per trial phase (0 to 4) and effect type (condition or event): */
+    public static final int NUM_PHASES = 5;
+    public static final int CONDITION_COUNTERS = 0;
+    public static final int EVENT_COUNTERS = NUM_PHASES;
+    public static final int COUNTERS_PER_EDGE = 2 * NUM_PHASES;
+    /* The counters of all drug-effect edges, COUNTERS_PER_EDGE ints per edge, indexed by TrialEdge.countsIndex: */
+    private int[] effectEdgeCounts;
+    /* The drug-effect edges in the order of their counters: */
+    private ArrayList<TrialEdge> effectEdges;
+    /* Drug-effect edge weights computed by reweight(), indexed like the counters; null until reweight() is called: */
+    private double[] effectEdgeWeights;
+    /* The effect nodes removed by pruneEffectNodes(), kept so that the graph can be reweighted: */
+    private ArrayList<EffectNode> effectNodes;
+    /* Whether effect nodes with a very high degree are interconnected approximately when pruning (off by default): */
+    private boolean approximatePruning;
+    /* In approximate mode, effect nodes with more involved edges than this are sampled instead of fully interconnected: */
+    private int hubDegreeCap;
+    /* Source of randomness for sampling the pairs of a hub effect node: */
+    private Random random;
+    /* How long the most recent call to pruneEffectNodes() took, in milliseconds: */
+    private long lastPruneMillis;
+    /* The effect nodes that were sampled rather than fully interconnected during the most recent prune: */
+    private ArrayList<EffectNode> sampledHubs;
 	
 	public TrialGraph(String dbFilePath) {
 		this.dbFilePath = dbFilePath;
 		this.nodes = new HashMap<TrialNode, TrialNode>();
         this.edges = new HashMap<TrialEdge, TrialEdge>();
+        this.approximatePruning = false;
+        this.hubDegreeCap = Integer.MAX_VALUE;
+        this.random = new Random();
+        this.sampledHubs = new ArrayList<EffectNode>();
+        this.effectEdgeCounts = new int[COUNTERS_PER_EDGE * 1024];
+        this.effectEdges = new ArrayList<TrialEdge>();
+        this.published = new AtomicReference<GraphSnapshot>(new GraphSnapshot(this.nodes, this.edges, 0));
 	}
+    
+    /**
+     * Switch on approximate effect node pruning. Any effect node with 
+     * more than hubDegreeCap involved edges will only have a random 
+     * sample of its drug pairs interconnected, with the sampled 
+     * weights scaled up so that every drug-drug weight stays an 
+     * unbiased estimate of its exact value. The seed makes a run 
+     * repeatable.
+     */
+    public void setApproximatePruning(int hubDegreeCap, long seed) {
+        if (hubDegreeCap < 2) {
+            throw new IllegalArgumentException("The hub degree cap must be at least 2, but was " + hubDegreeCap + ".");
+        }
+        this.approximatePruning = true;
+        this.hubDegreeCap = hubDegreeCap;
+        this.random = new Random(seed);
+    }
+    
+    public boolean isApproximatePruning() {
+        return this.approximatePruning;
+    }
 	
     /**
      * Go through the database text file line by line, extracting info 
@@ -33,15 +88,44 @@ public class TrialGraph {
      * the graph. The after this method is run, the graph will contain 
      * nodes representing drugs as well as nodes representing treated 
      * conditions and adverse events.
+     * 
+     * The graph is built on private maps and only published once it is 
+     * complete, so readers keep seeing the previous graph until then. 
+     * If the db file cannot be read, the exception is passed on and 
+     * the previous graph stays both published and current. Malformed 
+     * lines are reported and skipped.
      */
-	public void loadGraph() {
+	public synchronized void loadGraph() throws IOException {
+        BuildState previous = new BuildState(this);
+        try {
+            this.loadUnpublished();
+        }
+        catch (IOException | RuntimeException e) {
+            previous.restore(this);
+            throw e;
+        }
+        this.publish();
+	}
+    
+    /**
+     * Load the db file into fresh node and edge maps without publishing 
+     * them.
+     */
+    private void loadUnpublished() throws IOException {
+        this.nodes = new HashMap<TrialNode, TrialNode>();
+        this.edges = new HashMap<TrialEdge, TrialEdge>();
+        this.effectEdgeCounts = new int[COUNTERS_PER_EDGE * 1024];
+        this.effectEdges = new ArrayList<TrialEdge>();
+        this.effectEdgeWeights = null;
+        this.effectNodes = null;
+        ByteTokenizer tokenizer = new ByteTokenizer(new FileInputStream(new File(this.dbFilePath)));
 		try {
-			String currentLine;
-			BufferedReader bufferedReader = new BufferedReader(new FileReader(new File(this.dbFilePath)));
+            ByteTokenizer.Dictionary<TrialEdge> edgeCache = new ByteTokenizer.Dictionary<TrialEdge>(1 << 16);
+            byte[] conditionBytes = TrialGraph.conditionIdentifierString.getBytes(StandardCharsets.UTF_8);
             int i = 0;
             long startTime = System.currentTimeMillis();
-			while ((currentLine = bufferedReader.readLine()) != null) {
-                this.stringToNodes(currentLine);
+			while (tokenizer.nextLine()) {
+                this.bytesToNodes(tokenizer, edgeCache, conditionBytes);
                 if (i % 1000 == 0) {
                     long stopTime = System.currentTimeMillis();
                     long elapsed = stopTime - startTime;
@@ -50,75 +134,247 @@ public class TrialGraph {
                 }
                 i++;
 			}
-			bufferedReader.close();
 		}
-		catch (Exception e) {
-			System.out.println(e.getMessage());
-			e.printStackTrace();
+		finally {
+			tokenizer.close();
 		}
 	}
 	
     /**
      * Iterate over this graph's list of nodes. If an EffectNode is 
      * encountered, all drug nodes connected to it are interconnected, 
-     * and the EffectNode is removed from this graph's list of nodes.
+     * and the EffectNode is removed from this graph's list of nodes. 
+     * The pruned graph is published once it is complete.
+     */
+	public synchronized void pruneEffectNodes() {
+        this.pruneUnpublished();
+        this.publish();
+	}
+    
+    /**
+     * Load the db file and prune the effect nodes, publishing only the 
+     * finished graph. This is the method to use for rebuilding a graph 
+     * that other threads are reading: they keep seeing the old graph 
+     * for the whole rebuild, then switch to the new one at once. If 
+     * the rebuild fails, the exception is passed on and nothing is 
+     * published: readers keep the old graph, and so does this object.
+     */
+    public synchronized void rebuild() throws IOException {
+        BuildState previous = new BuildState(this);
+        try {
+            this.loadUnpublished();
+            this.pruneUnpublished();
+        }
+        catch (IOException | RuntimeException e) {
+            previous.restore(this);
+            throw e;
+        }
+        this.publish();
+    }
+    
+    /**
+     * The fields that a build replaces, saved so that a failed build 
+     * can put them back.
      */
-	private void pruneEffectNodes() {
+    private static class BuildState {
+        private HashMap<TrialNode, TrialNode> nodes;
+        private HashMap<TrialEdge, TrialEdge> edges;
+        private int[] effectEdgeCounts;
+        private ArrayList<TrialEdge> effectEdges;
+        private double[] effectEdgeWeights;
+        private ArrayList<EffectNode> effectNodes;
+        
+        private BuildState(TrialGraph g) {
+            this.nodes = g.nodes;
+            this.edges = g.edges;
+            this.effectEdgeCounts = g.effectEdgeCounts;
+            this.effectEdges = g.effectEdges;
+            this.effectEdgeWeights = g.effectEdgeWeights;
+            this.effectNodes = g.effectNodes;
+        }
+        
+        private void restore(TrialGraph g) {
+            g.nodes = this.nodes;
+            g.edges = this.edges;
+            g.effectEdgeCounts = this.effectEdgeCounts;
+            g.effectEdges = this.effectEdges;
+            g.effectEdgeWeights = this.effectEdgeWeights;
+            g.effectNodes = this.effectNodes;
+        }
+    }
+    
+    /**
+     * Replace the published snapshot with the graph that was just 
+     * built. The maps are never modified after this point: every build 
+     * step starts from new maps.
+     */
+    private void publish() {
+        long version = this.published.get().getVersion() + 1;
+        this.published.set(new GraphSnapshot(this.nodes, this.edges, version));
+    }
+    
+    /**
+     * The pruning half of pruneEffectNodes(), without publishing.
+     */
+    private void pruneUnpublished() {
         HashMap<TrialNode, TrialNode> newNodeList = new HashMap<TrialNode, TrialNode>();
-        this.edges.clear();
-        long startTime = System.currentTimeMillis();
-        int numNodes = this.nodes.size();
-        int i = 0;
+        ArrayList<EffectNode> effectNodeList = new ArrayList<EffectNode>();
         for (TrialNode n : this.nodes.values()) {
+            if (n instanceof EffectNode) {
+                effectNodeList.add((EffectNode)n);
+            }
+            else {
+                newNodeList.put(n, n);
+            }
+        }
+        this.nodes = newNodeList;
+        this.effectNodes = effectNodeList;
+        this.interConnectEffectNodes();
+	}
+    
+    /**
+     * Rebuild the drug-drug edges from the removed effect nodes: every 
+     * pair of drugs connected to the same effect node is connected.
+     */
+    private void interConnectEffectNodes() {
+        this.edges = new HashMap<TrialEdge, TrialEdge>();
+        long startTime = System.currentTimeMillis();
+        long pruneStartNanos = System.nanoTime();
+        /* Time spent printing progress, which is left out of lastPruneMillis: */
+        long loggingNanos = 0;
+        int numNodes = this.effectNodes.size();
+        this.sampledHubs = new ArrayList<EffectNode>();
+        for (int i = 0; i < numNodes; i++) {
             if (i % 50 == 0) {
+                long loggingStartNanos = System.nanoTime();
                 long stopTime = System.currentTimeMillis();
                 long elapsed = stopTime - startTime;
                 System.out.println("Effect node pruning progress: " + ((int)((double)i / numNodes * 100)) + "%. Batch took " + elapsed + " milliseconds.");
                 startTime = System.currentTimeMillis();
+                loggingNanos += System.nanoTime() - loggingStartNanos;
             }
-            if (n instanceof EffectNode) {
-                this.interConnect((EffectNode)n);
+            EffectNode effectNode = this.effectNodes.get(i);
+            if (this.approximatePruning && effectNode.getInvolvedEdges().size() > this.hubDegreeCap) {
+                this.interConnectSampled(effectNode);
+                this.sampledHubs.add(effectNode);
             }
             else {
-                newNodeList.put(n, n);
+                this.interConnect(effectNode);
             }
-            i++;
         }
-        this.nodes = newNodeList;
-	}
+        this.lastPruneMillis = (System.nanoTime() - pruneStartNanos - loggingNanos) / 1000000;
+    }
+    
+    /**
+     * Recompute every drug-drug weight with a different weighting of 
+     * the drug-effect edges. The new drug-effect weights are computed 
+     * in one pass over the flat array of per-phase, per-type counters, 
+     * and the drug-drug edges are then rebuilt from the effect nodes 
+     * kept by pruneEffectNodes(); the db file is not read again. The 
+     * weights stored in the drug-effect edges themselves are left 
+     * untouched. The reweighted graph is published once it is complete.
+     */
+    public synchronized void reweight(EdgeWeighting weighting) {
+        if (this.effectNodes == null) {
+            throw new IllegalStateException("The graph must be loaded and pruned before it can be reweighted.");
+        }
+        int numEffectEdges = this.effectEdges.size();
+        double[] weights = new double[numEffectEdges];
+        for (int k = 0; k < numEffectEdges; k++) {
+            weights[k] = weighting.weight(this.effectEdgeCounts, k * COUNTERS_PER_EDGE);
+        }
+        this.effectEdgeWeights = weights;
+        this.interConnectEffectNodes();
+        this.publish();
+    }
 	
     /**
      * Given an EffectNode, create an edge between every drug node 
      * connected to the EffectNode.
      */
 	private void interConnect(EffectNode node) {
-        TrialEdge e1;
-        TrialEdge e2;
-        for (int i = 0; i < node.getInvolvedEdges().size(); i++) {
-            for (int j = i + 1; j < node.getInvolvedEdges().size(); j++) {
-                e1 = node.getInvolvedEdges().get(i);
-                e2 = node.getInvolvedEdges().get(j);
-                if (!(e1.equals(e2))) {
-                    TrialNode e1node;
-                    TrialNode e2node;
-                    if (!(e1.node1 instanceof EffectNode)) {
-                        e1node = e1.node1;
-                    }
-                    else {
-                        e1node = e1.node2;
-                    }
-                    if (!(e2.node1 instanceof EffectNode)) {
-                        e2node = e2.node1;
-                    }
-                    else {
-                        e2node = e2.node2;
-                    }
-                    TrialEdge newEdge = this.addEdge(e1node, e2node);
-                    newEdge.weight += this.interConnectWeight(e1, e2);
-                }
+        ArrayList<TrialEdge> involvedEdges = node.getInvolvedEdges();
+        for (int i = 0; i < involvedEdges.size(); i++) {
+            for (int j = i + 1; j < involvedEdges.size(); j++) {
+                this.connectDrugs(involvedEdges.get(i), involvedEdges.get(j), 1.0, 0.0);
             }
         }
 	}
+    
+    /**
+     * The approximate counterpart of interConnect(), used for effect 
+     * nodes whose degree is above the hub degree cap. Rather than 
+     * visiting all deg * (deg - 1) / 2 drug pairs, every pair is kept 
+     * independently with probability p, chosen so that about 
+     * cap * (cap - 1) / 2 pairs are kept. Kept pairs contribute their 
+     * weight divided by p, so the resulting drug-drug weights are 
+     * unbiased. The pairs are not enumerated one by one: the gap to the 
+     * next kept pair is drawn from a geometric distribution, so the 
+     * cost is proportional to the number of kept pairs.
+     * 
+     * Each kept pair also adds w^2 * (1 - p) / p^2 to the error 
+     * variance of its drug-drug edge, which is an unbiased estimate of 
+     * the variance that sampling introduced into that edge's weight.
+     */
+    private void interConnectSampled(EffectNode node) {
+        ArrayList<TrialEdge> involvedEdges = node.getInvolvedEdges();
+        long degree = involvedEdges.size();
+        long totalPairs = degree * (degree - 1) / 2;
+        double keptPairs = (double)this.hubDegreeCap * (this.hubDegreeCap - 1) / 2;
+        double p = keptPairs / totalPairs;
+        double logSkip = Math.log(1.0 - p);
+        double scale = 1.0 / p;
+        double varianceFactor = (1.0 - p) / (p * p);
+        /* Pair number k is the k-th pair (i, j) with i < j in row-major order; row i holds degree - 1 - i pairs: */
+        long pairIndex = -1;
+        long rowStart = 0;
+        long rowLength = degree - 1;
+        int i = 0;
+        while (true) {
+            pairIndex += 1 + (long)Math.floor(Math.log(1.0 - this.random.nextDouble()) / logSkip);
+            if (pairIndex >= totalPairs) {
+                break;
+            }
+            while (pairIndex >= rowStart + rowLength) {
+                rowStart += rowLength;
+                rowLength--;
+                i++;
+            }
+            int j = i + 1 + (int)(pairIndex - rowStart);
+            this.connectDrugs(involvedEdges.get(i), involvedEdges.get(j), scale, varianceFactor);
+        }
+    }
+    
+    /**
+     * Given two edges between a drug and the same effect node, add the 
+     * weight of the indirect connection between the two drugs to the 
+     * edge between them, multiplied by scale. The squared weight times 
+     * varianceFactor is added to the edge's error variance (zero when 
+     * the connection is computed exactly).
+     */
+    private void connectDrugs(TrialEdge e1, TrialEdge e2, double scale, double varianceFactor) {
+        if (!(e1.equals(e2))) {
+            TrialNode e1node;
+            TrialNode e2node;
+            if (!(e1.node1 instanceof EffectNode)) {
+                e1node = e1.node1;
+            }
+            else {
+                e1node = e1.node2;
+            }
+            if (!(e2.node1 instanceof EffectNode)) {
+                e2node = e2.node1;
+            }
+            else {
+                e2node = e2.node2;
+            }
+            double weight = interConnectWeight(this.effectEdgeWeight(e1), this.effectEdgeWeight(e2));
+            TrialEdge newEdge = this.addEdge(e1node, e2node);
+            newEdge.weight += weight * scale;
+            newEdge.occurrences++;
+            newEdge.errorVariance += weight * weight * varianceFactor;
+        }
+    }
 	
     /**
      * Converts a line of text from the "database" text file into two 
@@ -130,34 +386,163 @@ public class TrialGraph {
      * TrialGraph.eventIdentifierString, depending on whether the effect 
      * was a treated condition or an adverse event in the original 
      * trial. The phase is the phase of the clinical trial.
+     * 
+     * The line is read straight from the tokenizer's buffer. The edge 
+     * for the "Drug name~Effect name" part of the line is looked up in 
+     * edgeCache by its bytes, so Strings and nodes are only created the 
+     * first time a drug-effect pair is seen.
      */
-	private void stringToNodes(String line) {
+	private void bytesToNodes(ByteTokenizer tokenizer, ByteTokenizer.Dictionary<TrialEdge> edgeCache, byte[] conditionBytes) {
         try {
-            String[] firstSplit = line.split("~");
-            TrialNode drugNode = new TrialNode(firstSplit[0]);
-            String[] secondSplit = firstSplit[1].split("!");
-            EffectNode effectNode = new EffectNode(secondSplit[0]);
-            double weightChange = 0.0;
-            if (secondSplit[1].equals(TrialGraph.conditionIdentifierString)) {
-                weightChange = 1.0;
-            }
-            else {
-                weightChange = -1.0;
+            int counter = parseLine(tokenizer, conditionBytes);
+            double weightChange = counterWeight(counter);
+            byte[] buffer = tokenizer.getBuffer();
+            int keyStart = tokenizer.getLineStart();
+            int keyLength = tokenizer.getFieldEnd(1) - keyStart;
+            TrialEdge newEdge = edgeCache.get(buffer, keyStart, keyLength);
+            if (newEdge == null) {
+                newEdge = this.addDrugEffectEdge(tokenizer.getFieldString(0), tokenizer.getFieldString(1));
+                edgeCache.put(buffer, keyStart, keyLength, newEdge);
             }
-            int phase = Integer.parseInt(secondSplit[2]);
-            weightChange *= phase;
-            TrialNode newEffectNode = this.addNode(effectNode);
-            TrialNode newTrialNode = this.addNode(drugNode);
-            TrialEdge newEdge = this.addEdge(newTrialNode, newEffectNode);
             newEdge.weight += weightChange;
-            ((EffectNode)newEffectNode).addInvolvedEdge(newEdge);
+            newEdge.occurrences++;
+            int countsIndex = this.getCountsIndex(newEdge);
+            this.effectEdgeCounts[countsIndex + counter]++;
         }
         catch (Exception e) {
             System.out.println(e.getMessage());
 			e.printStackTrace();
-            System.out.println(line);
+            System.out.println(tokenizer.getLineString());
         }
 	}
+    
+    /**
+     * Split the current line of a tokenizer into the fields of a db 
+     * line (see bytesToNodes()) and return the counter it increments: 
+     * CONDITION_COUNTERS + phase for a treated condition, or 
+     * EVENT_COUNTERS + phase for an adverse event. Throws an 
+     * IllegalArgumentException if the line has fewer than 4 fields or 
+     * its phase is not a number from 0 to NUM_PHASES - 1. Every graph 
+     * build parses lines with this method, so they all reject the same 
+     * lines.
+     */
+    public static int parseLine(ByteTokenizer tokenizer, byte[] conditionBytes) {
+        if (tokenizer.split((byte)'~', (byte)'!') < 4) {
+            throw new IllegalArgumentException("Expected 4 fields.");
+        }
+        int phase = tokenizer.parseInt(3);
+        if (phase < 0 || phase >= NUM_PHASES) {
+            throw new IllegalArgumentException("Invalid phase " + phase + ".");
+        }
+        return (tokenizer.fieldEquals(2, conditionBytes) ? CONDITION_COUNTERS : EVENT_COUNTERS) + phase;
+    }
+    
+    /**
+     * The change in the weight of a drug-effect edge for one db line 
+     * with the given counter: +phase for a treated condition, -phase 
+     * for an adverse event.
+     */
+    public static double counterWeight(int counter) {
+        if (counter < EVENT_COUNTERS) {
+            return counter - CONDITION_COUNTERS;
+        }
+        return -(counter - EVENT_COUNTERS);
+    }
+    
+    /**
+     * Add a drug node, an effect node and the edge between them to the 
+     * graph (each only if it doesn't already exist), and return the 
+     * edge.
+     */
+    private TrialEdge addDrugEffectEdge(String drug, String effect) {
+        TrialNode newEffectNode = this.addNode(new EffectNode(effect));
+        TrialNode newTrialNode = this.addNode(new TrialNode(drug));
+        TrialEdge newEdge = this.addEdge(newTrialNode, newEffectNode);
+        ((EffectNode)newEffectNode).addInvolvedEdge(newEdge);
+        return newEdge;
+    }
+    
+    /**
+     * Write the loaded (not yet pruned) graph as a partial aggregate: 
+     * one line per drug-effect edge, with the edge's counters instead 
+     * of its weight. A line has the following format:
+     * 
+     * Drug name~Effect name!c0!c1!c2!c3!c4!e0!e1!e2!e3!e4
+     * 
+     * where cN and eN count the trials of phase N in which the drug 
+     * treated the effect as a condition or caused it as an adverse 
+     * event. Partial aggregates of disjoint sets of trials can be 
+     * combined with mergePartialAggregates().
+     */
+    public synchronized void writePartialAggregate(File targetFile) throws IOException {
+        BufferedWriter bufferedWriter = new BufferedWriter(new FileWriter(targetFile));
+        StringBuilder builder = new StringBuilder();
+        for (TrialEdge e : this.effectEdges) {
+            boolean drugFirst = !(e.node1 instanceof EffectNode);
+            builder.setLength(0);
+            builder.append((drugFirst ? e.node1 : e.node2).getContents());
+            builder.append("~");
+            builder.append((drugFirst ? e.node2 : e.node1).getContents());
+            for (int k = 0; k < COUNTERS_PER_EDGE; k++) {
+                builder.append("!");
+                builder.append(this.effectEdgeCounts[e.countsIndex + k]);
+            }
+            builder.append("\n");
+            bufferedWriter.write(builder.toString());
+        }
+        bufferedWriter.close();
+    }
+    
+    /**
+     * Build the (not yet pruned) graph by adding up the counters of 
+     * partial aggregates written by writePartialAggregate(), and 
+     * publish it. The weight of every drug-effect edge is computed 
+     * from its merged counters with PHASE_WEIGHTED, which gives the 
+     * same weight as loading all of the trials' lines from a single db 
+     * file. The graph can then be pruned as usual. If a partial 
+     * aggregate is missing or malformed, the exception is passed on and 
+     * the previous graph is kept.
+     */
+    public synchronized void mergePartialAggregates(List<File> partialFiles) throws IOException {
+        BuildState previous = new BuildState(this);
+        try {
+            this.nodes = new HashMap<TrialNode, TrialNode>();
+            this.edges = new HashMap<TrialEdge, TrialEdge>();
+            this.effectEdgeCounts = new int[COUNTERS_PER_EDGE * 1024];
+            this.effectEdges = new ArrayList<TrialEdge>();
+            this.effectEdgeWeights = null;
+            this.effectNodes = null;
+            for (File partialFile : partialFiles) {
+                BufferedReader bufferedReader = new BufferedReader(new FileReader(partialFile));
+                String currentLine;
+                while ((currentLine = bufferedReader.readLine()) != null) {
+                    int tilde = currentLine.indexOf('~');
+                    int firstCounter = currentLine.indexOf('!', tilde);
+                    String[] counters = currentLine.substring(firstCounter + 1).split("!");
+                    if (tilde < 0 || firstCounter < 0 || counters.length != COUNTERS_PER_EDGE) {
+                        bufferedReader.close();
+                        throw new IOException("Malformed line in " + partialFile + ": " + currentLine);
+                    }
+                    TrialEdge newEdge = this.addDrugEffectEdge(currentLine.substring(0, tilde), currentLine.substring(tilde + 1, firstCounter));
+                    int countsIndex = this.getCountsIndex(newEdge);
+                    for (int k = 0; k < COUNTERS_PER_EDGE; k++) {
+                        int count = Integer.parseInt(counters[k]);
+                        this.effectEdgeCounts[countsIndex + k] += count;
+                        newEdge.occurrences += count;
+                    }
+                }
+                bufferedReader.close();
+            }
+            for (TrialEdge e : this.effectEdges) {
+                e.weight = PHASE_WEIGHTED.weight(this.effectEdgeCounts, e.countsIndex);
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            previous.restore(this);
+            throw e;
+        }
+        this.publish();
+    }
 	
     /**
      * Add an edge to the graph, but only if the edge does not already 
@@ -187,44 +572,175 @@ public class TrialGraph {
 	}
     
     /**
-     * Given an edge between some drug A and some effect X, and an edge 
-     * between some drug B and effect X, this method determines the 
-     * weight of the connection between A and B. The weight will be 
-     * highest if A causes X and B treats X (indicating that X is an 
-     * adverse event).
+     * Return the offset of a drug-effect edge's counters in 
+     * effectEdgeCounts, giving the edge a zeroed block of counters the 
+     * first time it is seen.
      */
-    private double interConnectWeight(TrialEdge e1, TrialEdge e2) {
-        if ((e1.weight > 0 && e2.weight < 0) || (e1.weight < 0 && e2.weight > 0)) {
-            return Math.abs(e1.weight) + Math.abs(e2.weight);
+    private int getCountsIndex(TrialEdge edge) {
+        if (edge.countsIndex < 0) {
+            edge.countsIndex = this.effectEdges.size() * COUNTERS_PER_EDGE;
+            this.effectEdges.add(edge);
+            if (edge.countsIndex + COUNTERS_PER_EDGE > this.effectEdgeCounts.length) {
+                this.effectEdgeCounts = Arrays.copyOf(this.effectEdgeCounts, this.effectEdgeCounts.length * 2);
+            }
+        }
+        return edge.countsIndex;
+    }
+    
+    /**
+     * The weight of a drug-effect edge: the one computed by the most 
+     * recent call to reweight(), or the weight accumulated while 
+     * loading if the graph has not been reweighted.
+     */
+    private double effectEdgeWeight(TrialEdge edge) {
+        if (this.effectEdgeWeights != null && edge.countsIndex >= 0) {
+            return this.effectEdgeWeights[edge.countsIndex / COUNTERS_PER_EDGE];
+        }
+        return edge.weight;
+    }
+    
+    /**
+     * Given the weight of an edge between some drug A and some effect 
+     * X, and of an edge between some drug B and effect X, this method 
+     * determines the weight of the connection between A and B. The 
+     * weight will be highest if A causes X and B treats X (indicating 
+     * that X is an adverse event).
+     */
+    public static double interConnectWeight(double w1, double w2) {
+        if ((w1 > 0 && w2 < 0) || (w1 < 0 && w2 > 0)) {
+            return Math.abs(w1) + Math.abs(w2);
         }
         else {
-            return (e1.weight + e2.weight) / 2;
+            return (w1 + w2) / 2;
         }
     }
     
-    public HashMap<TrialEdge, TrialEdge> getEdges() {
-        return this.edges;
+    /**
+     * The most recently published graph. A snapshot never changes, so 
+     * a reader that needs several consistent answers should get the 
+     * snapshot once and query it, rather than calling the methods below 
+     * one after another (a rebuild may be published in between).
+     */
+    public GraphSnapshot getSnapshot() {
+        return this.published.get();
+    }
+    
+    public Map<TrialEdge, TrialEdge> getEdges() {
+        return this.published.get().getEdges();
     }
     
     public int getNumberOfNodes() {
-		return this.nodes.size();
+		return this.published.get().getNumberOfNodes();
 	}
     
     public int getNumberOfEdges() {
-        return this.edges.size();
+        return this.published.get().getNumberOfEdges();
+    }
+    
+    /**
+     * One line per hub sampled by the most recent prune, with the 
+     * expected numbers of its drug pairs that were kept and left out. 
+     * A pair that was left out only loses this hub's contribution, but 
+     * if no other effect node connects the two drugs, their edge is 
+     * missing from the graph.
+     */
+    private ArrayList<String> getSampledHubReport() {
+        ArrayList<String> lines = new ArrayList<String>();
+        double keptPairs = (double)this.hubDegreeCap * (this.hubDegreeCap - 1) / 2;
+        for (EffectNode hub : this.sampledHubs) {
+            long degree = hub.getInvolvedEdges().size();
+            long totalPairs = degree * (degree - 1) / 2;
+            double leftOut = totalPairs - keptPairs;
+            lines.add("  " + hub.getContents() + ": " + degree + " drugs, " + totalPairs + " drug pairs, about " + Math.round(keptPairs) + " kept and " + Math.round(leftOut) + " (" + String.format("%.1f", 100.0 * leftOut / totalPairs) + "%) left out.");
+        }
+        return lines;
+    }
+    
+    public long getLastPruneMillis() {
+        return this.lastPruneMillis;
+    }
+    
+    /**
+     * Return a graph that shares this graph's loaded nodes and edges, 
+     * but prunes them exactly. Must be called after loadGraph() and 
+     * before pruneEffectNodes(); it is used to measure the speedup and 
+     * the actual error of approximate pruning. Pruning never modifies 
+     * the effect nodes or their edges, so both graphs can be pruned 
+     * from the same loaded state.
+     */
+    private TrialGraph exactCopyBeforePrune() {
+        TrialGraph exact = new TrialGraph(this.dbFilePath);
+        exact.nodes = this.nodes;
+        return exact;
+    }
+    
+    /**
+     * Print how approximate pruning compares to exact pruning of the 
+     * same loaded graph: the speedup, the estimated error across all 
+     * drug-drug edges, and how the estimated error relates to the 
+     * actual difference from the exact weights.
+     */
+    private void printApproximationSummary(TrialGraph exact) {
+        Map<TrialEdge, TrialEdge> exactEdges = exact.getEdges();
+        double sumEstimatedError = 0.0;
+        double maxEstimatedError = 0.0;
+        double sumActualError = 0.0;
+        double sumEstimatedVariance = 0.0;
+        double sumSquaredActualError = 0.0;
+        int withinTwoSigma = 0;
+        int numMissing = 0;
+        for (TrialEdge e : this.edges.values()) {
+            double estimatedError = e.getEstimatedError();
+            TrialEdge exactEdge = exactEdges.get(e);
+            double actualError = Math.abs(e.weight - (exactEdge == null ? 0.0 : exactEdge.weight));
+            sumEstimatedError += estimatedError;
+            maxEstimatedError = Math.max(maxEstimatedError, estimatedError);
+            sumActualError += actualError;
+            sumEstimatedVariance += e.errorVariance;
+            sumSquaredActualError += actualError * actualError;
+            if (actualError <= 2 * estimatedError) {
+                withinTwoSigma++;
+            }
+        }
+        /* Pairs that were only connected through sampled hubs, and were
+         * never drawn, are missing from this graph; their estimate is 0,
+         * so their actual error is the whole exact weight: */
+        for (TrialEdge exactEdge : exactEdges.values()) {
+            if (!(this.edges.containsKey(exactEdge))) {
+                double actualError = Math.abs(exactEdge.weight);
+                sumActualError += actualError;
+                sumSquaredActualError += actualError * actualError;
+                numMissing++;
+            }
+        }
+        int numEdges = Math.max(1, this.edges.size() + numMissing);
+        double speedup = (double)Math.max(1, exact.getLastPruneMillis()) / Math.max(1, this.lastPruneMillis);
+        System.out.println("Approximate pruning sampled " + this.sampledHubs.size() + " hub effect nodes with more than " + this.hubDegreeCap + " edges:");
+        for (String line : this.getSampledHubReport()) {
+            System.out.println(line);
+        }
+        System.out.println("Exact pruning (timed first, without progress output) took " + exact.getLastPruneMillis() + " milliseconds; approximate pruning took " + this.lastPruneMillis + " milliseconds (" + String.format("%.2f", speedup) + "x speedup).");
+        System.out.println("Exact graph has " + exact.getNumberOfEdges() + " edges; approximate graph has " + this.edges.size() + " edges; " + numMissing + " exact edges are missing from the approximate graph and count as weight 0.");
+        System.out.println("Estimated error per kept drug-drug edge: mean " + (sumEstimatedError / Math.max(1, this.edges.size())) + ", max " + maxEstimatedError + ".");
+        System.out.println("Actual error per drug-drug edge (kept or missing): mean " + (sumActualError / numEdges) + "; " + ((int)((double)withinTwoSigma / numEdges * 100)) + "% of edges within twice their estimated error (missing edges have no estimate and count as outside).");
+        System.out.println("Root of summed estimated variance: " + Math.sqrt(sumEstimatedVariance) + "; root of summed squared actual error: " + Math.sqrt(sumSquaredActualError) + ".");
     }
 	
 	public void printGraphToFile(String directory) {
 		try {
+            GraphSnapshot snapshot = this.getSnapshot();
 			File targetFile = new File(directory + "/graph.txt");
 			targetFile.createNewFile();
 			FileWriter fileWriter = new FileWriter(targetFile);
 			BufferedWriter bufferedWriter = new BufferedWriter(fileWriter);
-            for (TrialEdge e : this.edges.values()) {
+            for (TrialEdge e : snapshot.getEdges().values()) {
                 bufferedWriter.write(e.toString() + "\n");
                 bufferedWriter.flush();
             }
             bufferedWriter.close();
+            if (this.approximatePruning) {
+                this.printErrorsToFile(directory);
+            }
 		}
 		catch (Exception e) {
 			System.out.println(e.getMessage());
@@ -232,6 +748,87 @@ public class TrialGraph {
 		}
 	}
     
+    /**
+     * Print the estimated error (one standard deviation) of every 
+     * drug-drug edge weight to a file called "graphErrors.txt". Only 
+     * meaningful after approximate pruning; the file starts with 
+     * comment lines starting with "#", and every other line has the 
+     * format
+     * 
+     * node1--- (weight +/- error) ---node2
+     * 
+     * Only edges in this graph are listed. A pair of drugs that was only
+     * connected through sampled hubs, and was never drawn, is absent
+     * rather than estimated, so the comment lines give the expected 
+     * number of pairs left out of each sampled hub.
+     */
+    public void printErrorsToFile(String directory) {
+        try {
+            File targetFile = new File(directory + "/graphErrors.txt");
+            targetFile.createNewFile();
+            BufferedWriter bufferedWriter = new BufferedWriter(new FileWriter(targetFile));
+            bufferedWriter.write("# Approximate pruning sampled " + this.sampledHubs.size() + " hubs with more than " + this.hubDegreeCap + " edges; drug pairs connected only through them that were never drawn are absent from this file, not estimated.\n");
+            for (String line : this.getSampledHubReport()) {
+                bufferedWriter.write("#" + line + "\n");
+            }
+            for (TrialEdge e : this.getEdges().values()) {
+                bufferedWriter.write(e.node1.getContents() + "--- (" + e.weight + " +/- " + e.getEstimatedError() + ") ---" + e.node2.getContents() + "\n");
+            }
+            bufferedWriter.close();
+        }
+        catch (Exception e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
+    /**
+     * An immutable, published version of the graph. TrialGraph builds 
+     * every new version on private maps and then publishes it with a 
+     * single atomic reference swap, so a reader holding a snapshot 
+     * always sees a complete graph, however many rebuilds happen in 
+     * the meantime. The version number goes up by one with every 
+     * publication.
+     */
+    public static class GraphSnapshot {
+        private final Map<TrialNode, TrialNode> nodes;
+        private final Map<TrialEdge, TrialEdge> edges;
+        private final long version;
+        
+        private GraphSnapshot(HashMap<TrialNode, TrialNode> nodes, HashMap<TrialEdge, TrialEdge> edges, long version) {
+            this.nodes = Collections.unmodifiableMap(nodes);
+            this.edges = Collections.unmodifiableMap(edges);
+            this.version = version;
+        }
+        
+        public Map<TrialNode, TrialNode> getNodes() {
+            return this.nodes;
+        }
+        
+        public Map<TrialEdge, TrialEdge> getEdges() {
+            return this.edges;
+        }
+        
+        public long getVersion() {
+            return this.version;
+        }
+        
+        public int getNumberOfNodes() {
+            return this.nodes.size();
+        }
+        
+        public int getNumberOfEdges() {
+            return this.edges.size();
+        }
+        
+        /**
+         * Return the edge between two nodes, or null if there is none.
+         */
+        public TrialEdge getEdge(TrialNode node1, TrialNode node2) {
+            return this.edges.get(new TrialEdge(node1, node2));
+        }
+    }
+    
     /**
      * A class representing a node in the graph. Could be a node 
      * representing a drug, a node representing a treated condition, or 
@@ -319,11 +916,18 @@ public class TrialGraph {
         public double weight;
         public TrialNode node1;
         public TrialNode node2;
+        /* The number of db lines for a drug-effect edge, or the number of effect nodes connecting a drug-drug edge (only sampled ones, for approximate pruning): */
         public int occurrences;
+        /* Estimated variance that approximate pruning introduced into the weight (zero for exact edges): */
+        public double errorVariance;
+        /* Offset of a drug-effect edge's per-phase, per-type counters in the graph's counter array (-1 for other edges): */
+        public int countsIndex;
         
         public TrialEdge(TrialNode node1, TrialNode node2) {
             this.weight = 0.0;
-            this.occurrences = 1;
+            this.occurrences = 0;
+            this.errorVariance = 0.0;
+            this.countsIndex = -1;
             int comparison = node1.compareTo(node2);
             if (comparison <= 0) {
                 this.node1 = node1;
@@ -359,6 +963,13 @@ public class TrialGraph {
             }
         }
         
+        /**
+         * The estimated standard error of this edge's weight.
+         */
+        public double getEstimatedError() {
+            return Math.sqrt(this.errorVariance);
+        }
+        
         @Override
         public String toString() {
             return this.node1.getContents() + "--- (" + this.weight + ") ---" + this.node2.getContents();
@@ -370,6 +981,89 @@ public class TrialGraph {
         }
     }
     
+    /**
+     * A way of weighting a drug-effect edge from its counters. The 
+     * counters of an edge start at offset in counts; the first 
+     * NUM_PHASES hold the number of times the drug treated the effect 
+     * (as a condition) in a trial of each phase, and the next 
+     * NUM_PHASES the number of times it caused the effect (as an 
+     * adverse event).
+     */
+    public interface EdgeWeighting {
+        public double weight(int[] counts, int offset);
+    }
+    
+    /**
+     * The weighting used while loading the graph: +phase for every 
+     * treated condition and -phase for every adverse event.
+     */
+    public static final EdgeWeighting PHASE_WEIGHTED = new EdgeWeighting() {
+        public double weight(int[] counts, int offset) {
+            double weight = 0.0;
+            for (int phase = 0; phase < NUM_PHASES; phase++) {
+                weight += phase * (counts[offset + CONDITION_COUNTERS + phase] - counts[offset + EVENT_COUNTERS + phase]);
+            }
+            return weight;
+        }
+    };
+    
+    /**
+     * +1 for every treated condition and -1 for every adverse event, 
+     * regardless of phase (so phase 0 trials count too).
+     */
+    public static final EdgeWeighting PHASE_AGNOSTIC = new EdgeWeighting() {
+        public double weight(int[] counts, int offset) {
+            double weight = 0.0;
+            for (int phase = 0; phase < NUM_PHASES; phase++) {
+                weight += counts[offset + CONDITION_COUNTERS + phase] - counts[offset + EVENT_COUNTERS + phase];
+            }
+            return weight;
+        }
+    };
+    
+    /**
+     * Like PHASE_WEIGHTED, but treated conditions are ignored.
+     */
+    public static final EdgeWeighting EVENT_ONLY = new EdgeWeighting() {
+        public double weight(int[] counts, int offset) {
+            double weight = 0.0;
+            for (int phase = 0; phase < NUM_PHASES; phase++) {
+                weight -= phase * counts[offset + EVENT_COUNTERS + phase];
+            }
+            return weight;
+        }
+    };
+    
+    /**
+     * PHASE_WEIGHTED compressed with a signed log, so that drugs that 
+     * appear in many trials do not dominate the graph.
+     */
+    public static final EdgeWeighting LOG_SCALED = new EdgeWeighting() {
+        public double weight(int[] counts, int offset) {
+            double weight = PHASE_WEIGHTED.weight(counts, offset);
+            return Math.signum(weight) * Math.log1p(Math.abs(weight));
+        }
+    };
+    
+    /**
+     * Look up one of the predefined weightings by name.
+     */
+    public static EdgeWeighting getWeighting(String name) {
+        if (name.equalsIgnoreCase("phase")) {
+            return PHASE_WEIGHTED;
+        }
+        else if (name.equalsIgnoreCase("agnostic")) {
+            return PHASE_AGNOSTIC;
+        }
+        else if (name.equalsIgnoreCase("event")) {
+            return EVENT_ONLY;
+        }
+        else if (name.equalsIgnoreCase("log")) {
+            return LOG_SCALED;
+        }
+        throw new IllegalArgumentException("Unknown weighting " + name + "; expected phase, agnostic, event or log.");
+    }
+    
     /**
      * A Comparator just for use in the main method, when the graph's 
      * edges are sorted for the purpose of retrieving the top 50 highest 
@@ -396,17 +1090,69 @@ public class TrialGraph {
         }
     }
 	
+	/**
+     * Usage: TrialGraph [db file] [output directory] [--approximate hubDegreeCap] [--weighting phase|agnostic|event|log]
+     * 
+     * With --approximate, effect nodes with more than hubDegreeCap edges 
+     * are pruned by sampling, and the run summary compares the result 
+     * to exact pruning. With --weighting, the pruned graph is 
+     * reweighted with one of the predefined weightings.
+     */
 	public static void main(String[] args) {
-		TrialGraph g = new TrialGraph("/home/andy/programs/java/EECS 435 project/indirectDB.txt");
-		g.loadGraph();
+        String dbFilePath = "/home/andy/programs/java/EECS 435 project/indirectDB.txt";
+        String outputDirectory = "/home/andy/programs/java/EECS 435 project";
+        int hubDegreeCap = -1;
+        EdgeWeighting weighting = null;
+        ArrayList<String> positional = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--approximate")) {
+                hubDegreeCap = Integer.parseInt(args[++i]);
+            }
+            else if (args[i].equals("--weighting")) {
+                weighting = getWeighting(args[++i]);
+            }
+            else {
+                positional.add(args[i]);
+            }
+        }
+        if (positional.size() > 0) {
+            dbFilePath = positional.get(0);
+        }
+        if (positional.size() > 1) {
+            outputDirectory = positional.get(1);
+        }
+		TrialGraph g = new TrialGraph(dbFilePath);
+        if (hubDegreeCap > 0) {
+            g.setApproximatePruning(hubDegreeCap, 435L);
+        }
+        try {
+            g.loadGraph();
+        }
+        catch (IOException e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+            return;
+        }
         int numNodesBeforePrune = g.getNumberOfNodes();
         int numEdgesBeforePrune = g.getNumberOfEdges();
+        TrialGraph exact = (g.isApproximatePruning() ? g.exactCopyBeforePrune() : null);
+        if (exact != null) {
+            /* The exact baseline is pruned first, so that the approximate prune can't look faster for having a warmer JIT: */
+            exact.pruneEffectNodes();
+        }
         g.pruneEffectNodes();
         int numNodesAfterPrune = g.getNumberOfNodes();
         int numEdgesAfterPrune = g.getNumberOfEdges();
         System.out.println("Before pruning effect nodes: " + numNodesBeforePrune + " nodes and " + numEdgesBeforePrune + " edges.");
         System.out.println("After pruning effect nodes: " + numNodesAfterPrune + " nodes and " + numEdgesAfterPrune + " edges.");
-        g.printGraphToFile("/home/andy/programs/java/EECS 435 project");
+        if (exact != null) {
+            g.printApproximationSummary(exact);
+        }
+        if (weighting != null) {
+            g.reweight(weighting);
+            System.out.println("Reweighting the graph took " + g.getLastPruneMillis() + " milliseconds.");
+        }
+        g.printGraphToFile(outputDirectory);
         
         ArrayList<TrialEdge> sortedList = new ArrayList<TrialEdge>(g.getEdges().size());
         for (TrialGraph.TrialEdge e : g.getEdges().values()) {
@@ -414,11 +1160,11 @@ public class TrialGraph {
         }
         Collections.sort(sortedList, new EdgeWeightComparator());
         System.out.println("\nMost negative connections:");
-        for (int i = 0; i < 50; i++) {
+        for (int i = 0; i < 50 && i < sortedList.size(); i++) {
             System.out.println(sortedList.get(i));
         }
         System.out.println("\nMost positive connections:");
-        for (int i = sortedList.size() - 1; i > sortedList.size() - 50; i--) {
+        for (int i = sortedList.size() - 1; i > sortedList.size() - 50 && i >= 0; i--) {
             System.out.println(sortedList.get(i));
         }
 	}
@@ -36,15 +36,56 @@ public class TrialReader extends XMLReader {
      * that will be used for generating and weighting the graph.
      */
 	public void generateIndirectDatabase(String dataDirectory, String targetDirectory) {
+        try {
+            this.generateIndirectDatabase(dataDirectory, new File(targetDirectory + "/indirectDB.txt"), 0, 1);
+        }
+        catch (Exception e) {
+			System.out.println(e.getMessage());
+			e.printStackTrace();
+		}
+    }
+    
+    /**
+     * Generate the part of the indirect database that belongs to one 
+     * shard, for building the graph with several processes. Trials are 
+     * assigned to shards by the hash of their NCT id (see shardOf()), 
+     * so the shards of one directory are disjoint and together cover 
+     * every trial. The shard is written to indirectDB.shardN.txt. 
+     * Unlike generateIndirectDatabase(), this method throws if the data 
+     * directory cannot be listed or a trial cannot be read, so that a 
+     * shard process can report the failure.
+     */
+    public void generateIndirectDatabaseShard(String dataDirectory, String targetDirectory, int shard, int numShards) throws IOException {
+        this.generateIndirectDatabase(dataDirectory, new File(targetDirectory + "/indirectDB.shard" + shard + ".txt"), shard, numShards);
+    }
+    
+    /**
+     * Return the shard a trial file belongs to, out of numShards. The 
+     * NCT id is the file name without its extension; String.hashCode() 
+     * is specified exactly, so every process agrees on the shards.
+     */
+    public static int shardOf(String trialFileName, int numShards) {
+        int extension = trialFileName.lastIndexOf('.');
+        String nctId = (extension > 0 ? trialFileName.substring(0, extension) : trialFileName);
+        return Math.floorMod(nctId.hashCode(), numShards);
+    }
+    
+    /**
+     * Write the indirect database lines of every trial in the data 
+     * directory that belongs to the given shard to targetFile.
+     */
+    private void generateIndirectDatabase(String dataDirectory, File targetFile, int shard, int numShards) throws IOException {
+        /* Get the names of all files in the directory: */
+        File folder = new File(dataDirectory);
+        File[] trialFiles = folder.listFiles();
+        if (trialFiles == null) {
+            throw new IOException("Cannot list the trial files in " + dataDirectory + ".");
+        }
+        /* Set up a new text file, and a BufferedWriter to write to it: */
+        targetFile.createNewFile();
+        FileWriter fileWriter = new FileWriter(targetFile);
+        BufferedWriter bufferedWriter = new BufferedWriter(fileWriter);
 		try {
-			/* Get the names of all files in the directory: */
-			File folder = new File(dataDirectory);
-			File[] trialFiles = folder.listFiles();
-			/* Set up a new text file, and a BufferedWriter to write to it: */
-			File targetFile = new File(targetDirectory + "/indirectDB.txt");
-			targetFile.createNewFile();
-			FileWriter fileWriter = new FileWriter(targetFile);
-			BufferedWriter bufferedWriter = new BufferedWriter(fileWriter);
 			/* Extract info from each file in the directory one at a time: */
 			String fileName;
 			ArrayList<String> dbStringList;
@@ -52,6 +93,9 @@ public class TrialReader extends XMLReader {
                 /* Progress tracking: */
                 if (i % 100 == 0) {
                     System.out.println("Graph file progress: " + ((int)((double)i / trialFiles.length * 100)) + "%");
+                }
+                if (numShards > 1 && shardOf(trialFiles[i].getName(), numShards) != shard) {
+                    continue;
                 }
 				fileName = dataDirectory + "/" + trialFiles[i].getName();
 				dbStringList = this.generateDatabaseStrings(fileName);
@@ -60,11 +104,9 @@ public class TrialReader extends XMLReader {
 					bufferedWriter.flush();
 				}
 			}
-			bufferedWriter.close();
 		}
-		catch (Exception e) {
-			System.out.println(e.getMessage());
-			e.printStackTrace();
+		finally {
+			bufferedWriter.close();
 		}
 	}
 	
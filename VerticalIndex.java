@@ -0,0 +1,483 @@
+import java.util.*;
+import java.io.*;
+import java.lang.Integer;
+import java.lang.Math;
+
+/**
+ * A vertical index over the frequent pattern database. Every drug is
+ * mapped to the set of trials (lines of FPDB.txt, numbered from zero)
+ * that use it, stored as a compressed bitmap. The index is built once,
+ * can be saved to and loaded from disk, and answers the support of any
+ * itemset by intersecting bitmaps rather than scanning FPDB.txt. It
+ * also mines frequent itemsets Eclat-style on the same bitmaps.
+ */
+public class VerticalIndex {
+    /* The name of the file the index is saved to, next to FPDB.txt: */
+    public static String indexFileName = "FPDB.index";
+    /* Written at the start of an index file so that other files are rejected: */
+    private static int magicNumber = 0x46504458;
+    /* Maps each drug name to the trials that use it: */
+    private HashMap<String, TidBitmap> tidsets;
+    /* The number of trials in the database: */
+    private int numTrials;
+
+    private VerticalIndex(HashMap<String, TidBitmap> tidsets, int numTrials) {
+        this.tidsets = tidsets;
+        this.numTrials = numTrials;
+    }
+
+    /**
+     * Build the index with a single pass over FPDB.txt in the given
+     * directory. A drug that is repeated within a trial is only
+     * counted once for that trial.
+     */
+    public static VerticalIndex build(String directory) throws IOException {
+        HashMap<String, IntList> lists = new HashMap<String, IntList>();
+        BufferedReader bufferedReader = new BufferedReader(new FileReader(new File(directory + "/FPDB.txt")));
+        String currentLine;
+        int trial = 0;
+        while ((currentLine = bufferedReader.readLine()) != null) {
+            String[] strings = currentLine.split("!");
+            for (int i = 0; i < strings.length; i++) {
+                if (strings[i].length() == 0) {
+                    continue;
+                }
+                IntList list = lists.get(strings[i]);
+                if (list == null) {
+                    list = new IntList();
+                    lists.put(strings[i], list);
+                }
+                if (list.size == 0 || list.values[list.size - 1] != trial) {
+                    list.add(trial);
+                }
+            }
+            trial++;
+        }
+        bufferedReader.close();
+        HashMap<String, TidBitmap> tidsets = new HashMap<String, TidBitmap>(lists.size() * 2);
+        for (Map.Entry<String, IntList> entry : lists.entrySet()) {
+            tidsets.put(entry.getKey(), TidBitmap.fromSortedIds(entry.getValue().values, entry.getValue().size, trial));
+        }
+        return new VerticalIndex(tidsets, trial);
+    }
+
+    /**
+     * Load the index previously saved in the given directory, or build
+     * it from FPDB.txt (and save it) if there is no saved index or
+     * FPDB.txt has changed since it was saved.
+     */
+    public static VerticalIndex open(String directory) throws IOException {
+        File indexFile = new File(directory + "/" + indexFileName);
+        File dbFile = new File(directory + "/FPDB.txt");
+        if (indexFile.exists() && indexFile.lastModified() >= dbFile.lastModified()) {
+            return load(indexFile);
+        }
+        VerticalIndex index = build(directory);
+        index.save(indexFile);
+        return index;
+    }
+
+    public void save(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        out.writeInt(magicNumber);
+        out.writeInt(this.numTrials);
+        out.writeInt(this.tidsets.size());
+        for (Map.Entry<String, TidBitmap> entry : this.tidsets.entrySet()) {
+            out.writeUTF(entry.getKey());
+            entry.getValue().write(out);
+        }
+        out.close();
+    }
+
+    public static VerticalIndex load(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != magicNumber) {
+                throw new IOException(file + " is not a vertical index file.");
+            }
+            int numTrials = in.readInt();
+            int numDrugs = in.readInt();
+            HashMap<String, TidBitmap> tidsets = new HashMap<String, TidBitmap>(numDrugs * 2);
+            for (int i = 0; i < numDrugs; i++) {
+                String drug = in.readUTF();
+                tidsets.put(drug, TidBitmap.read(in, numTrials));
+            }
+            return new VerticalIndex(tidsets, numTrials);
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Return the number of trials that use every one of the given
+     * drugs. The tidsets are intersected from smallest to largest, so
+     * the intermediate results stay as small as possible. The support
+     * of the empty itemset is the number of trials.
+     */
+    public int getSupport(String... drugs) {
+        if (drugs.length == 0) {
+            return this.numTrials;
+        }
+        TidBitmap[] bitmaps = new TidBitmap[drugs.length];
+        for (int i = 0; i < drugs.length; i++) {
+            bitmaps[i] = this.tidsets.get(drugs[i]);
+            if (bitmaps[i] == null) {
+                return 0;
+            }
+        }
+        Arrays.sort(bitmaps, new Comparator<TidBitmap>() {
+            public int compare(TidBitmap b1, TidBitmap b2) {
+                return Integer.compare(b1.cardinality(), b2.cardinality());
+            }
+        });
+        if (bitmaps.length == 1) {
+            return bitmaps[0].cardinality();
+        }
+        if (bitmaps.length == 2) {
+            return bitmaps[0].intersectionSize(bitmaps[1]);
+        }
+        TidBitmap result = bitmaps[0];
+        for (int i = 1; i < bitmaps.length - 1 && result.cardinality() > 0; i++) {
+            result = result.and(bitmaps[i]);
+        }
+        return result.intersectionSize(bitmaps[bitmaps.length - 1]);
+    }
+
+    public int getNumberOfTrials() {
+        return this.numTrials;
+    }
+
+    public int getNumberOfDrugs() {
+        return this.tidsets.size();
+    }
+
+    public Set<String> getDrugs() {
+        return Collections.unmodifiableSet(this.tidsets.keySet());
+    }
+
+    /**
+     * Mine every itemset with at least minSupport trials and at most
+     * maxLength drugs, Eclat-style: depth first, with the tidset of
+     * each itemset computed by intersecting its prefix's tidset with
+     * that of the drug being added. Every itemset's drugs are sorted
+     * in ascending order.
+     */
+    public ArrayList<Itemset> mineFrequentItemsets(int minSupport, int maxLength) {
+        ArrayList<String> frequentDrugs = new ArrayList<String>();
+        for (Map.Entry<String, TidBitmap> entry : this.tidsets.entrySet()) {
+            if (entry.getValue().cardinality() >= minSupport) {
+                frequentDrugs.add(entry.getKey());
+            }
+        }
+        Collections.sort(frequentDrugs);
+        ArrayList<String> prefix = new ArrayList<String>();
+        ArrayList<TidBitmap> extensions = new ArrayList<TidBitmap>(frequentDrugs.size());
+        for (String drug : frequentDrugs) {
+            extensions.add(this.tidsets.get(drug));
+        }
+        ArrayList<Itemset> itemsets = new ArrayList<Itemset>();
+        this.eclat(prefix, frequentDrugs, extensions, minSupport, maxLength, itemsets);
+        return itemsets;
+    }
+
+    /**
+     * Recursive step of mineFrequentItemsets(). Each drug in drugs,
+     * with its tidset (already intersected with the prefix's) in
+     * tidsets, extends the prefix to a frequent itemset. The drugs
+     * after it are then intersected with it to find the extensions of
+     * that itemset.
+     */
+    private void eclat(ArrayList<String> prefix, ArrayList<String> drugs, ArrayList<TidBitmap> tidsets, int minSupport, int maxLength, ArrayList<Itemset> itemsets) {
+        for (int i = 0; i < drugs.size(); i++) {
+            prefix.add(drugs.get(i));
+            TidBitmap tidset = tidsets.get(i);
+            itemsets.add(new Itemset(prefix.toArray(new String[prefix.size()]), tidset.cardinality()));
+            if (prefix.size() < maxLength) {
+                ArrayList<String> nextDrugs = new ArrayList<String>();
+                ArrayList<TidBitmap> nextTidsets = new ArrayList<TidBitmap>();
+                for (int j = i + 1; j < drugs.size(); j++) {
+                    if (tidset.intersectionSize(tidsets.get(j)) >= minSupport) {
+                        nextDrugs.add(drugs.get(j));
+                        nextTidsets.add(tidset.and(tidsets.get(j)));
+                    }
+                }
+                if (nextDrugs.size() > 0) {
+                    this.eclat(prefix, nextDrugs, nextTidsets, minSupport, maxLength, itemsets);
+                }
+            }
+            prefix.remove(prefix.size() - 1);
+        }
+    }
+
+    /**
+     * A set of drugs along with the number of trials that use all of
+     * them.
+     */
+    public static class Itemset {
+        public String[] drugs;
+        public int support;
+
+        public Itemset(String[] drugs, int support) {
+            this.drugs = drugs;
+            this.support = support;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < this.drugs.length; i++) {
+                if (i > 0) {
+                    builder.append(", ");
+                }
+                builder.append(this.drugs[i]);
+            }
+            builder.append(" (" + this.support + ")");
+            return builder.toString();
+        }
+    }
+
+    /**
+     * A compressed set of trial ids. Sparse sets (the vast majority of
+     * drugs) are stored as a sorted array of ids, and dense sets as a
+     * plain bitmap with one bit per trial, whichever is smaller. Each
+     * pair of representations has its own intersection routine.
+     */
+    public static class TidBitmap {
+        /* Sorted trial ids, or null if this set is stored as words: */
+        private int[] ids;
+        /* One bit per trial, or null if this set is stored as ids: */
+        private long[] words;
+        private int cardinality;
+
+        private TidBitmap(int[] ids, long[] words, int cardinality) {
+            this.ids = ids;
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        /**
+         * Choose the smaller representation for the first length ids,
+         * which must be sorted and below numTrials. An array of ids
+         * takes 32 bits per trial in the set, and a bitmap one bit per
+         * trial in the database.
+         */
+        public static TidBitmap fromSortedIds(int[] ids, int length, int numTrials) {
+            if ((long)length * 32 < numTrials) {
+                return new TidBitmap(Arrays.copyOf(ids, length), null, length);
+            }
+            long[] words = new long[(numTrials + 63) >>> 6];
+            for (int i = 0; i < length; i++) {
+                words[ids[i] >>> 6] |= 1L << ids[i];
+            }
+            return new TidBitmap(null, words, length);
+        }
+
+        public int cardinality() {
+            return this.cardinality;
+        }
+
+        public boolean contains(int id) {
+            if (this.words != null) {
+                return (id >>> 6) < this.words.length && (this.words[id >>> 6] & (1L << id)) != 0;
+            }
+            return Arrays.binarySearch(this.ids, id) >= 0;
+        }
+
+        /**
+         * The number of ids in both this set and the other, without
+         * materializing the intersection.
+         */
+        public int intersectionSize(TidBitmap other) {
+            if (this.words != null && other.words != null) {
+                int size = 0;
+                int length = Math.min(this.words.length, other.words.length);
+                for (int i = 0; i < length; i++) {
+                    size += Long.bitCount(this.words[i] & other.words[i]);
+                }
+                return size;
+            }
+            if (this.words != null) {
+                return other.intersectionSize(this);
+            }
+            if (other.words != null) {
+                int size = 0;
+                for (int i = 0; i < this.ids.length; i++) {
+                    if (other.contains(this.ids[i])) {
+                        size++;
+                    }
+                }
+                return size;
+            }
+            int size = 0;
+            int i = 0;
+            int j = 0;
+            while (i < this.ids.length && j < other.ids.length) {
+                if (this.ids[i] < other.ids[j]) {
+                    i++;
+                }
+                else if (this.ids[i] > other.ids[j]) {
+                    j++;
+                }
+                else {
+                    size++;
+                    i++;
+                    j++;
+                }
+            }
+            return size;
+        }
+
+        /**
+         * The intersection of this set and the other. The result is an
+         * array of ids unless both sets are bitmaps.
+         */
+        public TidBitmap and(TidBitmap other) {
+            if (this.words != null && other.words != null) {
+                int length = Math.min(this.words.length, other.words.length);
+                long[] words = new long[length];
+                int cardinality = 0;
+                for (int i = 0; i < length; i++) {
+                    words[i] = this.words[i] & other.words[i];
+                    cardinality += Long.bitCount(words[i]);
+                }
+                return new TidBitmap(null, words, cardinality);
+            }
+            if (this.words != null) {
+                return other.and(this);
+            }
+            int[] result = new int[Math.min(this.ids.length, other.cardinality)];
+            int size = 0;
+            if (other.words != null) {
+                for (int i = 0; i < this.ids.length; i++) {
+                    if (other.contains(this.ids[i])) {
+                        result[size++] = this.ids[i];
+                    }
+                }
+            }
+            else {
+                int i = 0;
+                int j = 0;
+                while (i < this.ids.length && j < other.ids.length) {
+                    if (this.ids[i] < other.ids[j]) {
+                        i++;
+                    }
+                    else if (this.ids[i] > other.ids[j]) {
+                        j++;
+                    }
+                    else {
+                        result[size++] = this.ids[i];
+                        i++;
+                        j++;
+                    }
+                }
+            }
+            return new TidBitmap(Arrays.copyOf(result, size), null, size);
+        }
+
+        public void write(DataOutputStream out) throws IOException {
+            out.writeInt(this.cardinality);
+            if (this.words != null) {
+                out.writeBoolean(true);
+                out.writeInt(this.words.length);
+                for (int i = 0; i < this.words.length; i++) {
+                    out.writeLong(this.words[i]);
+                }
+            }
+            else {
+                out.writeBoolean(false);
+                /* Ids are stored as gaps from the previous id, which are small for common drugs: */
+                int previous = 0;
+                for (int i = 0; i < this.ids.length; i++) {
+                    writeVarInt(out, this.ids[i] - previous);
+                    previous = this.ids[i];
+                }
+            }
+        }
+
+        public static TidBitmap read(DataInputStream in, int numTrials) throws IOException {
+            int cardinality = in.readInt();
+            if (in.readBoolean()) {
+                long[] words = new long[in.readInt()];
+                for (int i = 0; i < words.length; i++) {
+                    words[i] = in.readLong();
+                }
+                return new TidBitmap(null, words, cardinality);
+            }
+            int[] ids = new int[cardinality];
+            int previous = 0;
+            for (int i = 0; i < cardinality; i++) {
+                ids[i] = previous + readVarInt(in);
+                previous = ids[i];
+            }
+            return new TidBitmap(ids, null, cardinality);
+        }
+
+        private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+            while ((value & ~0x7f) != 0) {
+                out.writeByte((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte(value);
+        }
+
+        private static int readVarInt(DataInputStream in) throws IOException {
+            int value = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = in.readUnsignedByte();
+                value |= (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+    }
+
+    /**
+     * A growable list of ints, used while building the tidsets.
+     */
+    private static class IntList {
+        private int[] values = new int[4];
+        private int size = 0;
+
+        private void add(int value) {
+            if (this.size == this.values.length) {
+                this.values = Arrays.copyOf(this.values, this.size * 2);
+            }
+            this.values[this.size++] = value;
+        }
+    }
+
+    /**
+     * Usage: VerticalIndex directory [drug ...]
+     *
+     * With drugs, print the support of that itemset. Without, print the
+     * frequent itemsets of up to three drugs.
+     */
+    public static void main(String[] args) {
+        try {
+            String directory = (args.length > 0 ? args[0] : "/home/andy/programs/java/EECS 435 project/");
+            long startTime = System.currentTimeMillis();
+            VerticalIndex index = VerticalIndex.open(directory);
+            long elapsed = System.currentTimeMillis() - startTime;
+            System.out.println("Opened index of " + index.getNumberOfDrugs() + " drugs over " + index.getNumberOfTrials() + " trials in " + elapsed + " milliseconds.");
+            if (args.length > 1) {
+                String[] drugs = Arrays.copyOfRange(args, 1, args.length);
+                long queryStartTime = System.nanoTime();
+                int support = index.getSupport(drugs);
+                long queryElapsed = (System.nanoTime() - queryStartTime) / 1000;
+                System.out.println("Support of " + Arrays.toString(drugs) + ": " + support + " (" + queryElapsed + " microseconds).");
+            }
+            else {
+                for (Itemset itemset : index.mineFrequentItemsets(50, 3)) {
+                    System.out.println(itemset);
+                }
+            }
+        }
+        catch (Exception e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+        }
+    }
+}